@@ -0,0 +1,151 @@
+package com.joaquinlom.wikitude;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters of the bridge between React, the module and the SDK.
+ *
+ * Latencies are recorded in histograms with power-of-two microsecond buckets, so recording is
+ * a few array writes and percentiles are exact to within a factor of two. Everything is shared
+ * by all views and can be recorded from any thread.
+ */
+final class BridgeMetrics {
+
+    // Latencies
+    static final int COMMAND = 0;       // receiveCommand, from dispatch to the end of its execution
+    static final int JS_QUEUE = 1;      // Javascript queued until it is sent to the world
+    static final int WORLD_LOAD = 2;    // loadWorld until worldWasLoaded or worldLoadFailed
+    static final int CAPTURE = 3;       // captureScreen until the SDK returns the bitmap
+    static final int ENCODE = 4;        // encoding a captured bitmap
+    static final int JSON_CONVERT = 5;  // converting JSON from the world to React maps
+    static final int EVENT_EMIT = 6;    // sending an event to React
+    private static final String[] LATENCY_NAMES = {
+            "command", "jsQueue", "worldLoad", "capture", "encode", "jsonConvert", "eventEmit"
+    };
+
+    // Counters
+    static final int EVENTS_EMITTED = 0;
+    static final int EVENTS_DROPPED = 1;    // events of unmounted views, replaced in batches
+    static final int FRAMES_DROPPED = 2;    // capture stream frames dropped
+    static final int JS_BYTES = 3;          // Javascript sent to the world, in chars
+    static final int CAPTURE_BYTES = 4;     // encoded captures sent to React
+    static final int BULK_BYTES = 5;        // bulk data sent to the world
+    static final int JSON_MESSAGES = 6;     // JSON messages received from the world
+    private static final String[] COUNTER_NAMES = {
+            "eventsEmitted", "eventsDropped", "framesDropped", "jsBytes", "captureBytes", "bulkBytes", "jsonMessages"
+    };
+
+    // Bucket i holds latencies below 2^i microseconds, the last one everything above
+    private static final int BUCKETS = 26;
+
+    private static final Histogram[] histograms = new Histogram[LATENCY_NAMES.length];
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    static {
+        for(int i = 0; i < histograms.length; i++){
+            histograms[i] = new Histogram();
+        }
+    }
+
+    private BridgeMetrics(){}
+
+    /**
+     * A latency histogram.
+     */
+    private static class Histogram {
+        final long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sumMicros = 0;
+        long maxMicros = 0;
+
+        synchronized void record(long micros){
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+            this.buckets[bucket]++;
+            this.count++;
+            this.sumMicros += micros;
+            if(micros > this.maxMicros){
+                this.maxMicros = micros;
+            }
+        }
+
+        /**
+         * @return double Upper bound of the bucket holding the percentile, in milliseconds.
+         */
+        double percentile(double p){
+            long rank = (long) Math.ceil(p * this.count);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                seen += this.buckets[i];
+                if(seen >= rank){
+                    return Math.min(1L << i, this.maxMicros) / 1000d;
+                }
+            }
+            return this.maxMicros / 1000d;
+        }
+
+        synchronized WritableMap toMap(){
+            WritableMap map = Arguments.createMap();
+            map.putDouble("count", this.count);
+            map.putDouble("mean", this.count == 0 ? 0 : this.sumMicros / 1000d / this.count);
+            map.putDouble("max", this.maxMicros / 1000d);
+            map.putDouble("p50", this.count == 0 ? 0 : this.percentile(0.5));
+            map.putDouble("p95", this.count == 0 ? 0 : this.percentile(0.95));
+            map.putDouble("p99", this.count == 0 ? 0 : this.percentile(0.99));
+            return map;
+        }
+
+        synchronized void reset(){
+            Arrays.fill(this.buckets, 0);
+            this.count = 0;
+            this.sumMicros = 0;
+            this.maxMicros = 0;
+        }
+    }
+
+    /**
+     * Records the time since a start time.
+     * @param latency Latency, Ex. {@link #COMMAND}
+     * @param startNanos Start time from System.nanoTime().
+     */
+    static void record(int latency, long startNanos){
+        histograms[latency].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    static void count(int counter, long amount){
+        counters.addAndGet(counter, amount);
+    }
+
+    /**
+     * Builds a snapshot of all metrics. Latencies are in milliseconds.
+     * @param queueDepth Current number of Javascript snippets pending in all views.
+     * @return WritableMap `{latencies: {name: {count, mean, max, p50, p95, p99}}, counters: {...}, queueDepth}`
+     */
+    static WritableMap snapshot(int queueDepth){
+        WritableMap latencies = Arguments.createMap();
+        for(int i = 0; i < histograms.length; i++){
+            latencies.putMap(LATENCY_NAMES[i], histograms[i].toMap());
+        }
+        WritableMap counterMap = Arguments.createMap();
+        for(int i = 0; i < COUNTER_NAMES.length; i++){
+            counterMap.putDouble(COUNTER_NAMES[i], counters.get(i));
+        }
+        WritableMap metrics = Arguments.createMap();
+        metrics.putMap("latencies", latencies);
+        metrics.putMap("counters", counterMap);
+        metrics.putInt("queueDepth", queueDepth);
+        return metrics;
+    }
+
+    static void reset(){
+        for(Histogram histogram : histograms){
+            histogram.reset();
+        }
+        for(int i = 0; i < COUNTER_NAMES.length; i++){
+            counters.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.joaquinlom.wikitude;
+
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends bulk geo data to the Architect world as packed binary records instead of Javascript literals.
+ *
+ * Every record is {@link #STRIDE} bytes, little-endian:
+ *  float32 latitude, float32 longitude, float32 altitude, int32 id
+ *
+ * Packing and encoding happen on a background thread. Records are sent in chunks as Base64
+ * strings to a receiver function in the world:
+ * `receiver(channel, {chunk, chunks, offset, count, stride, data})`.
+ * Chunks are required snippets of the view's Javascript queue, so they run in order with the
+ * other queued Javascript and within the frame budget. The next chunk is encoded once the
+ * previous one was sent.
+ * Starting a transfer on a channel cancels any transfer still running on that channel.
+ */
+class BulkDataChannel {
+
+    static final int STRIDE = 16;
+    static final int DEFAULT_CHUNK_RECORDS = 4096;
+    static final String DEFAULT_RECEIVER = "World.onBulkData";
+
+    private static final String TAG = "BulkDataChannel";
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final WikitudeView view;
+    private final WikitudeViewManager viewManager;
+    // current transfer generation per channel, used to cancel older transfers
+    private final HashMap<String, Integer> generations = new HashMap<>();
+
+    BulkDataChannel(WikitudeView view, WikitudeViewManager viewManager){
+        this.view = view;
+        this.viewManager = viewManager;
+    }
+
+    /**
+     * Packs the arrays of a data map into records and sends them to the world.
+     * @param channel Name of the channel, passed to the receiver.
+     * @param data Map with the arrays `lat`, `lon` and optionally `alt` and `ids`.
+     * @param options Optional `chunkSize` (records per chunk) and `receiver` (world function).
+     */
+    void send(final String channel, final ReadableMap data, @Nullable final ReadableMap options){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer buffer;
+                try{
+                    buffer = pack(data);
+                }catch(RuntimeException e){
+                    // missing or mistyped arrays
+                    WikitudeLog.e(TAG, "Error packing bulk data of channel %s: %s", channel, e);
+                    emitError(channel, e.toString());
+                    return;
+                }
+                start(channel, buffer, options);
+            }
+        });
+    }
+
+    private static ByteBuffer pack(ReadableMap data){
+        if(!data.hasKey("lat") || data.isNull("lat") || !data.hasKey("lon") || data.isNull("lon")){
+            throw new IllegalArgumentException("Bulk data needs the arrays lat and lon");
+        }
+        ReadableArray lat = data.getArray("lat");
+        ReadableArray lon = data.getArray("lon");
+        ReadableArray alt = data.hasKey("alt") && !data.isNull("alt") ? data.getArray("alt") : null;
+        ReadableArray ids = data.hasKey("ids") && !data.isNull("ids") ? data.getArray("ids") : null;
+        int count = Math.min(lat.size(), lon.size());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * STRIDE).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < count; i++){
+            buffer.putFloat((float) lat.getDouble(i));
+            buffer.putFloat((float) lon.getDouble(i));
+            buffer.putFloat(alt != null && i < alt.size() ? (float) alt.getDouble(i) : 0f);
+            buffer.putInt(ids != null && i < ids.size() ? ids.getInt(i) : i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Sends a file of packed records to the world. The file is memory mapped, not read into the heap.
+     * @param channel Name of the channel, passed to the receiver.
+     * @param path Path of a file with records in the layout of this class.
+     * @param options Optional `chunkSize` (records per chunk) and `receiver` (world function).
+     */
+    void sendFile(final String channel, final String path, @Nullable final ReadableMap options){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String filePath = path.startsWith("file://") ? path.substring("file://".length()) : path;
+                try{
+                    FileInputStream stream = new FileInputStream(new File(filePath));
+                    try{
+                        FileChannel fileChannel = stream.getChannel();
+                        long size = fileChannel.size() - fileChannel.size() % STRIDE;
+                        ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        buffer.order(ByteOrder.LITTLE_ENDIAN);
+                        start(channel, buffer, options);
+                    }finally {
+                        stream.close();
+                    }
+                }catch(IOException e){
+                    WikitudeLog.e(TAG, "Error reading bulk data file %s: %s", path, e);
+                    emitError(channel, e.toString());
+                }
+            }
+        });
+    }
+
+    private void emitError(String channel, String message){
+        WritableMap event = Arguments.createMap();
+        event.putString("channel", channel);
+        event.putString("error", message);
+        this.viewManager.emitEvent(this.view, "onBulkDataSent", event);
+    }
+
+    /**
+     * Cancels all running transfers, for example when the view is destroyed.
+     */
+    void cancelAll(){
+        synchronized (this.generations){
+            for(String channel : this.generations.keySet()){
+                this.generations.put(channel, this.generations.get(channel) + 1);
+            }
+        }
+    }
+
+    private void start(String channel, ByteBuffer buffer, @Nullable ReadableMap options){
+        int chunkRecords = DEFAULT_CHUNK_RECORDS;
+        String receiver = DEFAULT_RECEIVER;
+        if(options != null){
+            if(options.hasKey("chunkSize") && !options.isNull("chunkSize")){
+                chunkRecords = Math.max(1, options.getInt("chunkSize"));
+            }
+            if(options.hasKey("receiver") && !options.isNull("receiver")){
+                receiver = options.getString("receiver");
+            }
+        }
+        int generation;
+        synchronized (this.generations){
+            Integer previous = this.generations.get(channel);
+            generation = previous == null ? 0 : previous + 1;
+            this.generations.put(channel, generation);
+        }
+        Transfer transfer = new Transfer(channel, generation, buffer, chunkRecords, receiver);
+        executor.execute(transfer);
+    }
+
+    private boolean isCurrent(String channel, int generation){
+        synchronized (this.generations){
+            Integer current = this.generations.get(channel);
+            return current != null && current == generation;
+        }
+    }
+
+    /**
+     * A single transfer. Encodes a chunk on the executor and queues it, then encodes the next
+     * chunk once the queue sent it, so only one chunk is held in memory as a string.
+     */
+    private class Transfer implements Runnable {
+        final String channel;
+        final int generation;
+        final ByteBuffer buffer;
+        final String receiver;
+        final int count;
+        final int chunkRecords;
+        final int chunks;
+        final byte[] scratch;
+        final String quotedChannel;
+        int chunk = 0;
+
+        Transfer(String channel, int generation, ByteBuffer buffer, int chunkRecords, String receiver){
+            this.channel = channel;
+            this.generation = generation;
+            this.buffer = buffer;
+            this.receiver = receiver;
+            this.count = buffer.remaining() / STRIDE;
+            this.chunkRecords = chunkRecords;
+            this.chunks = Math.max(1, (this.count + chunkRecords - 1) / chunkRecords);
+            this.scratch = new byte[Math.min(this.count, chunkRecords) * STRIDE];
+            this.quotedChannel = "'" + channel.replace("\\", "\\\\").replace("'", "\\'") + "'";
+        }
+
+        @Override
+        public void run() {
+            if(!isCurrent(this.channel, this.generation)){
+                return;
+            }
+            int offset = this.chunk * this.chunkRecords;
+            int records = Math.min(this.chunkRecords, this.count - offset);
+            this.buffer.position(offset * STRIDE);
+            this.buffer.get(this.scratch, 0, records * STRIDE);
+
+            final String js = this.receiver + "(" + this.quotedChannel
+                    + ",{chunk:" + this.chunk
+                    + ",chunks:" + this.chunks
+                    + ",offset:" + offset
+                    + ",count:" + records
+                    + ",stride:" + STRIDE
+                    + ",data:'" + Base64.encodeToString(this.scratch, 0, records * STRIDE, Base64.NO_WRAP) + "'})";
+
+            view.getJavascriptQueue().enqueue(js, null, true, new Runnable() {
+                @Override
+                public void run() {
+                    BridgeMetrics.count(BridgeMetrics.BULK_BYTES, js.length());
+                    if(!isCurrent(channel, generation)){
+                        return;
+                    }
+                    chunk++;
+                    if(chunk < chunks){
+                        executor.execute(Transfer.this);
+                    }else{
+                        finish();
+                    }
+                }
+            });
+        }
+
+        private void finish(){
+            WritableMap event = Arguments.createMap();
+            event.putString("channel", this.channel);
+            event.putInt("count", this.count);
+            event.putInt("chunks", this.chunks);
+            event.putDouble("bytes", (double) this.count * STRIDE);
+            viewManager.emitEvent(view, "onBulkDataSent", event);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.joaquinlom.wikitude;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Fixed-size ring of capture files in the app cache dir.
+ * Bitmaps are compressed straight into a FileChannel, so no byte[] of the whole image is built.
+ * Once the ring holds more files than its slot count, or more bytes than its budget,
+ * the oldest files are deleted.
+ */
+class CaptureFileRing {
+
+    static final int DEFAULT_SLOTS = 32;
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final String TAG = "CaptureFileRing";
+    private static final String CAPTURE_DIR = "wikitude_captures";
+    private static final String FILE_PREFIX = "capture_";
+
+    private static CaptureFileRing instance;
+
+    private final File dir;
+    private final ArrayDeque<File> files = new ArrayDeque<>();
+    private int slots = DEFAULT_SLOTS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long totalBytes = 0;
+    private long sequence;
+
+    private CaptureFileRing(File dir){
+        this.dir = dir;
+        this.sequence = System.currentTimeMillis();
+        this.restore();
+    }
+
+    /**
+     * Returns the capture ring of the app. Files left over from earlier sessions are
+     * part of the ring and count towards its budget.
+     * @param cacheDir Cache directory of the app.
+     */
+    static synchronized CaptureFileRing get(File cacheDir){
+        if(instance == null){
+            instance = new CaptureFileRing(new File(cacheDir, CAPTURE_DIR));
+        }
+        return instance;
+    }
+
+    /**
+     * Changes the size of the ring. Files over the new limits are evicted on the next write.
+     * @param slots Maximum number of files, values below 1 keep the current value.
+     * @param maxBytes Maximum total size of the files, values below 1 keep the current value.
+     */
+    synchronized void configure(int slots, long maxBytes){
+        if(slots > 0){
+            this.slots = slots;
+        }
+        if(maxBytes > 0){
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    /**
+     * Compresses the image into the next file of the ring.
+     * @param image Image to write.
+     * @param options Format and quality of the image.
+     * @return File The written file.
+     * @throws IOException If the file could not be written.
+     */
+    synchronized File write(Bitmap image, CaptureOptions options) throws IOException {
+        if(!this.dir.isDirectory() && !this.dir.mkdirs()){
+            throw new IOException("Could not create capture directory " + this.dir);
+        }
+        File file = new File(this.dir, FILE_PREFIX + (this.sequence++) + "." + options.getFileExtension());
+
+        long size;
+        boolean written = false;
+        FileOutputStream fileStream = new FileOutputStream(file);
+        try{
+            try{
+                FileChannel channel = fileStream.getChannel();
+                OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                if(!image.compress(options.compressFormat, options.quality, stream)){
+                    throw new IOException("Bitmap could not be compressed to " + options.format);
+                }
+                stream.flush();
+                size = channel.size();
+            }finally {
+                fileStream.close();
+            }
+            written = true;
+        }finally {
+            // also on runtime errors, like a recycled bitmap, an untracked file would never be evicted
+            if(!written && file.exists() && !file.delete()){
+                WikitudeLog.w(TAG, "Could not delete partial capture %s", file);
+            }
+        }
+
+        this.files.addLast(file);
+        this.totalBytes += size;
+        this.evict();
+        return file;
+    }
+
+    /**
+     * Deletes all files of the ring and restores its default limits.
+     */
+    synchronized void clear(){
+        while(!this.files.isEmpty()){
+            File file = this.files.removeFirst();
+            if(!file.delete()){
+                WikitudeLog.w(TAG, "Could not delete capture %s", file);
+            }
+        }
+        this.totalBytes = 0;
+        this.slots = DEFAULT_SLOTS;
+        this.maxBytes = DEFAULT_MAX_BYTES;
+    }
+
+    synchronized int getFileCount(){
+        return this.files.size();
+    }
+
+    synchronized long getTotalBytes(){
+        return this.totalBytes;
+    }
+
+    /**
+     * Deletes the oldest files until the ring is within its limits. The newest file is always kept.
+     */
+    private void evict(){
+        while(this.files.size() > 1 && (this.files.size() > this.slots || this.totalBytes > this.maxBytes)){
+            File oldest = this.files.removeFirst();
+            this.totalBytes -= oldest.length();
+            if(!oldest.delete()){
+                WikitudeLog.w(TAG, "Could not delete capture %s", oldest);
+            }
+        }
+        if(this.totalBytes < 0){
+            this.totalBytes = 0;
+        }
+    }
+
+    /**
+     * Adds the captures of earlier sessions to the ring, oldest first.
+     */
+    private void restore(){
+        File[] existing = this.dir.listFiles();
+        if(existing == null){
+            return;
+        }
+        Arrays.sort(existing, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for(File file : existing){
+            if(file.isFile() && file.getName().startsWith(FILE_PREFIX)){
+                this.files.addLast(file);
+                this.totalBytes += file.length();
+            }
+        }
+    }
+}
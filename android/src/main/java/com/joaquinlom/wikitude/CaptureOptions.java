@@ -0,0 +1,95 @@
+package com.joaquinlom.wikitude;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Options of a screen capture, parsed from the options map passed with the `captureScreen` command.
+ *
+ * Supported keys:
+ *  - format:  'png', 'jpeg' or 'webp'. Defaults to 'png'.
+ *  - quality: 0 - 100. Defaults to 100 for png and 90 for the lossy formats.
+ *  - width / height: Maximum size of the image. The aspect ratio is kept. Defaults to the full size.
+ *  - output:  'base64' sends the image over the bridge, 'file' writes it to the capture ring
+ *             in the cache dir and only sends the file URI. Defaults to 'base64'.
+ *  - ringSize / ringBytes: Maximum number of files and bytes kept in the capture ring.
+ */
+class CaptureOptions {
+
+    static final String OUTPUT_BASE64 = "base64";
+    static final String OUTPUT_FILE = "file";
+
+    String format = "png";
+    Bitmap.CompressFormat compressFormat = Bitmap.CompressFormat.PNG;
+    int quality = 100;
+    int width = 0;
+    int height = 0;
+    String output = OUTPUT_BASE64;
+    int ringSize = 0;
+    long ringBytes = 0;
+
+    static CaptureOptions fromReadableMap(@Nullable ReadableMap map){
+        CaptureOptions options = new CaptureOptions();
+        if(map == null){
+            return options;
+        }
+        if(map.hasKey("format") && !map.isNull("format")){
+            options.setFormat(map.getString("format"));
+        }
+        if(map.hasKey("quality") && !map.isNull("quality")){
+            options.quality = Math.max(0, Math.min(100, map.getInt("quality")));
+        }
+        if(map.hasKey("width") && !map.isNull("width")){
+            options.width = Math.max(0, map.getInt("width"));
+        }
+        if(map.hasKey("height") && !map.isNull("height")){
+            options.height = Math.max(0, map.getInt("height"));
+        }
+        if(map.hasKey("output") && !map.isNull("output")){
+            options.output = OUTPUT_FILE.equals(map.getString("output")) ? OUTPUT_FILE : OUTPUT_BASE64;
+        }
+        if(map.hasKey("ringSize") && !map.isNull("ringSize")){
+            options.ringSize = map.getInt("ringSize");
+        }
+        if(map.hasKey("ringBytes") && !map.isNull("ringBytes")){
+            options.ringBytes = (long) map.getDouble("ringBytes");
+        }
+        return options;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setFormat(String format){
+        switch (format){
+            case "jpg":
+            case "jpeg":
+                this.format = "jpeg";
+                this.compressFormat = Bitmap.CompressFormat.JPEG;
+                this.quality = 90;
+                break;
+            case "webp":
+                this.format = "webp";
+                this.compressFormat = Bitmap.CompressFormat.WEBP;
+                this.quality = 90;
+                break;
+            default:
+                this.format = "png";
+                this.compressFormat = Bitmap.CompressFormat.PNG;
+                this.quality = 100;
+        }
+    }
+
+    boolean writesFile(){
+        return OUTPUT_FILE.equals(this.output);
+    }
+
+    String getMimeType(){
+        return "image/" + this.format;
+    }
+
+    String getFileExtension(){
+        return "jpeg".equals(this.format) ? "jpg" : this.format;
+    }
+}
@@ -0,0 +1,228 @@
+package com.joaquinlom.wikitude;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.wikitude.architect.ArchitectView;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Continuously captures the screen of a view at a target frame rate.
+ *
+ * At most `maxInFlight` frames are captured, encoded or waiting for React at the same time.
+ * When that limit is reached, frames are dropped instead of queued, so a slow encoder or a
+ * busy JS thread doesn't flood the bridge. Frames are in flight until they are sent to React,
+ * or until React acknowledges them when `acknowledge` is enabled. A frame whose capture never
+ * completes, or that React never acknowledges, is released after a timeout.
+ *
+ * Every start and stop begins a new generation. Callbacks of frames from an earlier generation
+ * are ignored, so they neither release slots nor emit frames of a stopped stream.
+ */
+class CaptureStream {
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    // Time after which a frame that is still captured or encoded is counted as dropped
+    static final long CAPTURE_TIMEOUT_MS = 2000;
+    // Time after which a frame that React didn't acknowledge is released
+    static final long ACK_TIMEOUT_MS = 5000;
+
+    private final WikitudeView view;
+    private final WikitudeViewManager viewManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean running = false;
+    private long intervalMs;
+    private long nextFrameTime;
+    private int captureMode;
+    private int maxInFlight;
+    private boolean acknowledge;
+    private CaptureOptions options;
+
+    // Written from the main and encoder threads
+    private int generation = 0;
+    // Frames being captured or encoded, by frame number, with the time they started
+    private final HashMap<Long, Long> capturing = new HashMap<>();
+    // Delivery times of the frames waiting for an acknowledgement, oldest first
+    private final ArrayDeque<Long> awaitingAck = new ArrayDeque<>();
+
+    // Statistics
+    private long frameCount = 0;
+    private long deliveredCount = 0;
+    private long droppedCount = 0;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if(!running){
+                return;
+            }
+            captureFrame();
+            // schedule against the ideal timeline so the rate doesn't drift
+            long now = SystemClock.uptimeMillis();
+            nextFrameTime += intervalMs;
+            if(nextFrameTime < now){
+                nextFrameTime = now + intervalMs;
+            }
+            mainHandler.postAtTime(this, nextFrameTime);
+        }
+    };
+
+    CaptureStream(WikitudeView view, WikitudeViewManager viewManager){
+        this.view = view;
+        this.viewManager = viewManager;
+    }
+
+    /**
+     * Starts capturing. Restarts the stream with the new settings if it is already running.
+     * @param fps Target frame rate.
+     * @param captureWebView True to capture the camera and the world, false for only the camera.
+     * @param options Format, quality and size of the frames.
+     * @param maxInFlight Maximum number of frames being processed at the same time.
+     * @param acknowledge True if frames stay in flight until React acknowledges them.
+     */
+    void start(double fps, boolean captureWebView, CaptureOptions options, int maxInFlight, boolean acknowledge){
+        this.stop();
+        synchronized (this){
+            this.generation++;
+            this.capturing.clear();
+            this.awaitingAck.clear();
+            this.frameCount = 0;
+            this.deliveredCount = 0;
+            this.droppedCount = 0;
+        }
+        this.intervalMs = Math.max(1, Math.round(1000 / Math.max(0.1, fps)));
+        this.captureMode = WikitudeView.getCaptureMode(captureWebView);
+        this.options = options;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.acknowledge = acknowledge;
+        this.running = true;
+        this.nextFrameTime = SystemClock.uptimeMillis();
+        this.mainHandler.post(this.tick);
+    }
+
+    void stop(){
+        if(!this.running){
+            return;
+        }
+        this.running = false;
+        this.mainHandler.removeCallbacks(this.tick);
+        synchronized (this){
+            // frames still in flight belong to the stopped stream
+            this.generation++;
+            this.capturing.clear();
+            this.awaitingAck.clear();
+        }
+        this.viewManager.emitEvent(this.view, "onCaptureStreamStats", this.getStats());
+    }
+
+    boolean isRunning(){
+        return this.running;
+    }
+
+    /**
+     * Releases a frame that was sent to React, when frames are acknowledged.
+     */
+    synchronized void acknowledgeFrame(){
+        if(this.acknowledge){
+            this.awaitingAck.pollFirst();
+        }
+    }
+
+    synchronized WritableMap getStats(){
+        WritableMap stats = Arguments.createMap();
+        stats.putBoolean("running", this.running);
+        stats.putInt("inFlight", this.getInFlight());
+        stats.putDouble("frames", this.frameCount);
+        stats.putDouble("delivered", this.deliveredCount);
+        stats.putDouble("dropped", this.droppedCount);
+        return stats;
+    }
+
+    private void captureFrame(){
+        final long frame;
+        final int frameGeneration;
+        synchronized (this){
+            this.releaseExpired(SystemClock.uptimeMillis());
+            frame = this.frameCount++;
+            if(this.getInFlight() >= this.maxInFlight){
+                this.droppedCount++;
+                BridgeMetrics.count(BridgeMetrics.FRAMES_DROPPED, 1);
+                return;
+            }
+            this.capturing.put(frame, SystemClock.uptimeMillis());
+            frameGeneration = this.generation;
+        }
+        final CaptureOptions frameOptions = this.options;
+        this.view.captureScreen(this.captureMode, new ArchitectView.CaptureScreenCallback() {
+            @Override
+            public void onScreenCaptured(Bitmap image) {
+                ScreenCaptureEncoder.encode(image, frameOptions, view.getContext().getCacheDir(), new ScreenCaptureEncoder.Callback() {
+                    @Override
+                    public void onEncoded(WritableMap result) {
+                        synchronized (CaptureStream.this){
+                            if(!release(frame, frameGeneration)){
+                                return;
+                            }
+                            deliveredCount++;
+                            if(acknowledge){
+                                awaitingAck.addLast(SystemClock.uptimeMillis());
+                            }
+                            result.putDouble("frame", frame);
+                            result.putDouble("delivered", deliveredCount);
+                            result.putDouble("dropped", droppedCount);
+                        }
+                        viewManager.emitEvent(view, "onCaptureFrame", result);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        synchronized (CaptureStream.this){
+                            if(!release(frame, frameGeneration)){
+                                return;
+                            }
+                            droppedCount++;
+                        }
+                        BridgeMetrics.count(BridgeMetrics.FRAMES_DROPPED, 1);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ends the capture of a frame.
+     * @return boolean False if the frame belongs to an earlier generation or timed out.
+     */
+    private boolean release(long frame, int frameGeneration){
+        return frameGeneration == this.generation && this.capturing.remove(frame) != null;
+    }
+
+    /**
+     * Counts the frames that were captured or waited for an acknowledgement for too long
+     * as dropped and releases them.
+     */
+    private void releaseExpired(long now){
+        Iterator<Long> iterator = this.capturing.values().iterator();
+        while(iterator.hasNext()){
+            if(now - iterator.next() >= CAPTURE_TIMEOUT_MS){
+                iterator.remove();
+                this.droppedCount++;
+                BridgeMetrics.count(BridgeMetrics.FRAMES_DROPPED, 1);
+            }
+        }
+        while(!this.awaitingAck.isEmpty() && now - this.awaitingAck.peekFirst() >= ACK_TIMEOUT_MS){
+            this.awaitingAck.pollFirst();
+        }
+    }
+
+    private int getInFlight(){
+        return this.capturing.size() + this.awaitingAck.size();
+    }
+}
@@ -0,0 +1,192 @@
+package com.joaquinlom.wikitude;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import androidx.core.content.ContextCompat;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.wikitude.architect.ArchitectView;
+import com.wikitude.common.devicesupport.Feature;
+import com.wikitude.common.devicesupport.MissingDeviceFeatures;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks which SDK features the device supports, so React knows before a view is created.
+ *
+ * Every feature is checked once on a background thread, and the result is stored in the shared
+ * preferences under a key of the device build, Android version and SDK version. Later app starts,
+ * and all queries, read the stored result. Permissions are checked on every query, as they can
+ * change at any time.
+ *
+ * Features are named 'geo', 'image_tracking', 'instant_tracking' and 'object_tracking'.
+ */
+class DeviceCapabilityProbe {
+
+    private static final String TAG = "DeviceCapabilityProbe";
+    private static final String PREFERENCES = "wikitude_capabilities";
+    private static final String KEY_DEVICE = "device";
+    private static final String KEY_FEATURES = "features";
+
+    private static DeviceCapabilityProbe instance;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Context context;
+    // Support of each feature, null until probed or read from the preferences
+    private JSONObject features;
+
+    private DeviceCapabilityProbe(Context context){
+        this.context = context;
+    }
+
+    /**
+     * Returns the probe of the app.
+     * @param context Any context, the application context is kept.
+     */
+    static synchronized DeviceCapabilityProbe get(Context context){
+        if(instance == null){
+            instance = new DeviceCapabilityProbe(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Probes the features in the background, unless a stored result exists for this device.
+     */
+    void start(){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getFeatures();
+            }
+        });
+    }
+
+    /**
+     * Runs a query on the probe thread, after the probe if it is still running,
+     * so the caller's thread is never blocked.
+     */
+    void query(Runnable query){
+        executor.execute(query);
+    }
+
+    /**
+     * Checks if the device supports all the given features.
+     * Blocks until the probe is finished if it isn't yet.
+     * @param names Feature names.
+     * @return WritableMap `{supported, missing: [name...], message}`; unknown names are missing.
+     */
+    WritableMap isSupporting(ReadableArray names){
+        JSONObject features = this.getFeatures();
+        WritableArray missing = Arguments.createArray();
+        StringBuilder message = new StringBuilder();
+        for(int i = 0; i < names.size(); i++){
+            String name = names.getString(i);
+            JSONObject feature = features.optJSONObject(name);
+            if(feature != null && feature.optBoolean("supported")){
+                continue;
+            }
+            missing.pushString(name);
+            String reason = feature == null ? "Unknown feature " + name : feature.optString("message", "");
+            if(!reason.isEmpty()){
+                message.append(message.length() == 0 ? "" : "\n").append(reason);
+            }
+        }
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("supported", missing.size() == 0);
+        result.putArray("missing", missing);
+        result.putString("message", message.toString());
+        return result;
+    }
+
+    /**
+     * @return WritableMap `{features: {name: {supported, message}}, permissions: {camera, location}, sdkVersion}`
+     */
+    WritableMap getCapabilities(){
+        JSONObject features = this.getFeatures();
+        WritableMap featureMap = Arguments.createMap();
+        for(Feature feature : Feature.values()){
+            String name = nameOf(feature);
+            JSONObject support = features.optJSONObject(name);
+            WritableMap map = Arguments.createMap();
+            map.putBoolean("supported", support != null && support.optBoolean("supported"));
+            map.putString("message", support != null ? support.optString("message", "") : "");
+            featureMap.putMap(name, map);
+        }
+        WritableMap result = Arguments.createMap();
+        result.putMap("features", featureMap);
+        result.putMap("permissions", this.getPermissions());
+        result.putString("sdkVersion", ArchitectView.getSDKVersion());
+        return result;
+    }
+
+    /**
+     * @return WritableMap `{camera, location}`, where location is true for fine or coarse location.
+     */
+    WritableMap getPermissions(){
+        WritableMap permissions = Arguments.createMap();
+        permissions.putBoolean("camera", this.isGranted(Manifest.permission.CAMERA));
+        permissions.putBoolean("location", this.isGranted(Manifest.permission.ACCESS_FINE_LOCATION)
+                || this.isGranted(Manifest.permission.ACCESS_COARSE_LOCATION));
+        return permissions;
+    }
+
+    static String nameOf(Feature feature){
+        return feature.name().toLowerCase(Locale.US);
+    }
+
+    private boolean isGranted(String permission){
+        return ContextCompat.checkSelfPermission(this.context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private synchronized JSONObject getFeatures(){
+        if(this.features != null){
+            return this.features;
+        }
+        String device = Build.FINGERPRINT + "|" + Build.VERSION.SDK_INT + "|" + ArchitectView.getSDKVersion();
+        SharedPreferences preferences = this.context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        String stored = preferences.getString(KEY_FEATURES, null);
+        if(stored != null && device.equals(preferences.getString(KEY_DEVICE, null))){
+            try{
+                this.features = new JSONObject(stored);
+                return this.features;
+            }catch(JSONException e){
+                WikitudeLog.w(TAG, "Stored capabilities are invalid: %s", e);
+            }
+        }
+
+        long start = System.nanoTime();
+        JSONObject features = new JSONObject();
+        for(Feature feature : Feature.values()){
+            try{
+                MissingDeviceFeatures missing = ArchitectView.isDeviceSupporting(this.context, EnumSet.of(feature));
+                JSONObject support = new JSONObject();
+                support.put("supported", !missing.areFeaturesMissing());
+                support.put("message", missing.areFeaturesMissing() ? missing.getMissingFeatureMessage() : "");
+                features.put(nameOf(feature), support);
+            }catch(JSONException e){
+                WikitudeLog.e(TAG, "Error storing the support of %s: %s", feature, e);
+            }
+        }
+        this.features = features;
+        preferences.edit()
+                .putString(KEY_DEVICE, device)
+                .putString(KEY_FEATURES, features.toString())
+                .apply();
+        WikitudeLog.d(TAG, "Probed device features in %s ms", (System.nanoTime() - start) / 1000000);
+        return features;
+    }
+}
@@ -0,0 +1,183 @@
+package com.joaquinlom.wikitude;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Per-view batcher for the JSON messages a world sends to React.
+ *
+ * When enabled, messages are collected for a window, or until a maximum count, and sent as a
+ * single `onJsonBatch` event with an array of structured maps, instead of one `onJsonReceived`
+ * event each. Messages are only converted to React maps when the batch is sent.
+ *
+ * Messages of "latest only" types (Ex. tracking updates sent every frame) replace the pending
+ * message of the same type, so a batch holds at most one of each. The type of a message is the
+ * string at its type key.
+ */
+class EventBatcher {
+
+    static final long DEFAULT_WINDOW_MS = 16;
+    static final int DEFAULT_MAX_SIZE = 64;
+    static final String DEFAULT_TYPE_KEY = "type";
+
+    private static final String TAG = "EventBatcher";
+
+    private final WikitudeView view;
+    private final WikitudeViewManager viewManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean enabled = false;
+    private long windowMs = DEFAULT_WINDOW_MS;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private String typeKey = DEFAULT_TYPE_KEY;
+    private HashSet<String> latestOnly = new HashSet<>();
+
+    // Pending messages in arrival order; replaced messages are null
+    private ArrayList<JSONObject> pending = new ArrayList<>();
+    private int pendingCount = 0;
+    private final HashMap<String, Integer> latestIndex = new HashMap<>();
+    private int replacedCount = 0;
+    private boolean scheduled = false;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    EventBatcher(WikitudeView view, WikitudeViewManager viewManager){
+        this.view = view;
+        this.viewManager = viewManager;
+    }
+
+    /**
+     * Configures batching. Pending messages are sent first.
+     * @param config Null to disable batching, otherwise a map with the optional keys
+     *  - window:     Milliseconds to collect messages before sending them.
+     *  - maxSize:    Number of messages that sends the batch right away.
+     *  - latestOnly: Types of which only the latest pending message is kept.
+     *  - typeKey:    Key of the type in the messages, defaults to 'type'.
+     */
+    void configure(@Nullable ReadableMap config){
+        this.flush();
+        synchronized (this){
+            this.enabled = config != null;
+            if(config == null){
+                return;
+            }
+            this.windowMs = config.hasKey("window") ? Math.max(0, (long) config.getDouble("window")) : DEFAULT_WINDOW_MS;
+            this.maxSize = config.hasKey("maxSize") ? Math.max(1, config.getInt("maxSize")) : DEFAULT_MAX_SIZE;
+            this.typeKey = config.hasKey("typeKey") && !config.isNull("typeKey") ? config.getString("typeKey") : DEFAULT_TYPE_KEY;
+            this.latestOnly = new HashSet<>();
+            if(config.hasKey("latestOnly") && !config.isNull("latestOnly")){
+                ReadableArray types = config.getArray("latestOnly");
+                for(int i = 0; i < types.size(); i++){
+                    this.latestOnly.add(types.getString(i));
+                }
+            }
+        }
+    }
+
+    synchronized boolean isEnabled(){
+        return this.enabled;
+    }
+
+    /**
+     * Adds a message to the batch. Can be called from any thread.
+     */
+    void add(JSONObject message){
+        boolean flushNow;
+        synchronized (this){
+            if(!this.latestOnly.isEmpty()){
+                String type = message.optString(this.typeKey, null);
+                if(type != null && this.latestOnly.contains(type)){
+                    Integer previous = this.latestIndex.put(type, this.pending.size());
+                    if(previous != null){
+                        this.pending.set(previous, null);
+                        this.pendingCount--;
+                        this.replacedCount++;
+                    }
+                }
+            }
+            this.pending.add(message);
+            this.pendingCount++;
+
+            flushNow = this.pendingCount >= this.maxSize;
+            if(!flushNow && !this.scheduled){
+                this.scheduled = true;
+                this.mainHandler.postDelayed(this.flushRunnable, this.windowMs);
+            }
+        }
+        if(flushNow){
+            this.mainHandler.post(this.flushRunnable);
+        }
+    }
+
+    /**
+     * Drops all pending messages, Ex. when the view is destroyed.
+     */
+    synchronized void clear(){
+        this.mainHandler.removeCallbacks(this.flushRunnable);
+        this.scheduled = false;
+        this.pending = new ArrayList<>();
+        this.pendingCount = 0;
+        this.latestIndex.clear();
+        this.replacedCount = 0;
+    }
+
+    /**
+     * Sends the pending messages as one `onJsonBatch` event.
+     */
+    void flush(){
+        ArrayList<JSONObject> batch;
+        int replaced;
+        synchronized (this){
+            this.mainHandler.removeCallbacks(this.flushRunnable);
+            this.scheduled = false;
+            if(this.pendingCount == 0){
+                return;
+            }
+            batch = this.pending;
+            replaced = this.replacedCount;
+            this.pending = new ArrayList<>(batch.size());
+            this.pendingCount = 0;
+            this.latestIndex.clear();
+            this.replacedCount = 0;
+        }
+
+        BridgeMetrics.count(BridgeMetrics.EVENTS_DROPPED, replaced);
+        long start = System.nanoTime();
+        WritableArray events = Arguments.createArray();
+        for(JSONObject message : batch){
+            if(message == null){
+                continue;
+            }
+            try{
+                events.pushMap(JsonConvert.jsonToReact(message));
+            }catch(JSONException e){
+                WikitudeLog.e(TAG, "Exception while converting received JSON: %s", e);
+            }
+        }
+        BridgeMetrics.record(BridgeMetrics.JSON_CONVERT, start);
+        WritableMap event = Arguments.createMap();
+        event.putArray("events", events);
+        event.putInt("replaced", replaced);
+        this.viewManager.emitEvent(this.view, "onJsonBatch", event);
+    }
+}
@@ -0,0 +1,218 @@
+package com.joaquinlom.wikitude;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-view telemetry of a running world: UI thread frame times, JSON messages per second
+ * and memory use, sent to React as `onTelemetry` events.
+ *
+ * Frame times are the intervals between Choreographer frames, kept in a ring buffer of the
+ * latest frames. Percentiles are computed on a preallocated copy, so sampling and reporting
+ * don't allocate besides the event itself.
+ *
+ * When the 95th percentile is above the frame budget for a number of reports in a row, an
+ * `onFrameBudgetExceeded` event is sent, so the app can lower the quality of the world.
+ * Frames are only sampled while the view is resumed.
+ */
+class FrameTelemetry implements Choreographer.FrameCallback {
+
+    static final int DEFAULT_WINDOW = 240;
+    static final long DEFAULT_REPORT_INTERVAL_MS = 1000;
+    static final double DEFAULT_BUDGET_MS = 1000d / 60;
+    static final int DEFAULT_BUDGET_REPORTS = 3;
+
+    private final WikitudeView view;
+    private final WikitudeViewManager viewManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean enabled = false;
+    private boolean running = false;
+    private long reportIntervalMs = DEFAULT_REPORT_INTERVAL_MS;
+    private double budgetMs = DEFAULT_BUDGET_MS;
+    private int budgetReports = DEFAULT_BUDGET_REPORTS;
+
+    // Frame intervals in nanoseconds, ring buffer of the latest frames
+    private long[] frames = new long[DEFAULT_WINDOW];
+    private long[] sorted = new long[DEFAULT_WINDOW];
+    private int frameCount = 0;
+    private int frameIndex = 0;
+    private long lastFrameNanos = 0;
+    // Frames over budget since the last report
+    private int slowFrames = 0;
+    private int overBudgetReports = 0;
+
+    private final AtomicInteger jsonMessages = new AtomicInteger();
+    private long lastReportNanos = 0;
+
+    private final Runnable reportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            report();
+            if(running){
+                mainHandler.postDelayed(this, reportIntervalMs);
+            }
+        }
+    };
+
+    FrameTelemetry(WikitudeView view, WikitudeViewManager viewManager){
+        this.view = view;
+        this.viewManager = viewManager;
+    }
+
+    /**
+     * Configures the telemetry. Must be called on the main thread.
+     * @param config Null to disable the telemetry, otherwise a map with the optional keys
+     *  - reportInterval: Milliseconds between `onTelemetry` events.
+     *  - window:         Number of latest frames the percentiles are computed from.
+     *  - budget:         Frame budget in milliseconds, defaults to 60 fps.
+     *  - budgetReports:  Reports in a row over budget before `onFrameBudgetExceeded` is sent.
+     */
+    void configure(@Nullable ReadableMap config){
+        this.stop();
+        this.enabled = config != null;
+        if(config == null){
+            return;
+        }
+        this.reportIntervalMs = config.hasKey("reportInterval") ? Math.max(100, (long) config.getDouble("reportInterval")) : DEFAULT_REPORT_INTERVAL_MS;
+        this.budgetMs = config.hasKey("budget") ? Math.max(1, config.getDouble("budget")) : DEFAULT_BUDGET_MS;
+        this.budgetReports = config.hasKey("budgetReports") ? Math.max(1, config.getInt("budgetReports")) : DEFAULT_BUDGET_REPORTS;
+        int window = config.hasKey("window") ? Math.max(16, config.getInt("window")) : DEFAULT_WINDOW;
+        if(window != this.frames.length){
+            this.frames = new long[window];
+            this.sorted = new long[window];
+        }
+        if(this.view.isResumed()){
+            this.start();
+        }
+    }
+
+    /**
+     * Starts sampling frames, Ex. when the view is resumed. Does nothing if the telemetry is disabled.
+     */
+    void start(){
+        if(!this.enabled || this.running){
+            return;
+        }
+        this.running = true;
+        this.frameCount = 0;
+        this.frameIndex = 0;
+        this.lastFrameNanos = 0;
+        this.slowFrames = 0;
+        this.overBudgetReports = 0;
+        this.jsonMessages.set(0);
+        this.lastReportNanos = System.nanoTime();
+        Choreographer.getInstance().postFrameCallback(this);
+        this.mainHandler.postDelayed(this.reportRunnable, this.reportIntervalMs);
+    }
+
+    void stop(){
+        if(!this.running){
+            return;
+        }
+        this.running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        this.mainHandler.removeCallbacks(this.reportRunnable);
+    }
+
+    /**
+     * Counts a JSON message from the world. Can be called from any thread.
+     */
+    void onJsonMessage(){
+        if(this.enabled){
+            this.jsonMessages.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if(!this.running){
+            return;
+        }
+        if(this.lastFrameNanos != 0){
+            long interval = frameTimeNanos - this.lastFrameNanos;
+            this.frames[this.frameIndex] = interval;
+            this.frameIndex = (this.frameIndex + 1) % this.frames.length;
+            if(this.frameCount < this.frames.length){
+                this.frameCount++;
+            }
+            if(interval > this.budgetMs * 1000000){
+                this.slowFrames++;
+            }
+        }
+        this.lastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void report(){
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - this.lastReportNanos) / 1e9;
+        this.lastReportNanos = now;
+        int count = this.frameCount;
+        if(count == 0){
+            return;
+        }
+        System.arraycopy(this.frames, 0, this.sorted, 0, count);
+        Arrays.sort(this.sorted, 0, count);
+        long total = 0;
+        for(int i = 0; i < count; i++){
+            total += this.sorted[i];
+        }
+        double p95 = this.percentile(count, 0.95);
+
+        WritableMap frameTime = Arguments.createMap();
+        frameTime.putDouble("p50", this.percentile(count, 0.5));
+        frameTime.putDouble("p90", this.percentile(count, 0.9));
+        frameTime.putDouble("p95", p95);
+        frameTime.putDouble("p99", this.percentile(count, 0.99));
+        frameTime.putDouble("max", this.sorted[count - 1] / 1e6);
+
+        Runtime runtime = Runtime.getRuntime();
+        WritableMap event = Arguments.createMap();
+        event.putMap("frameTime", frameTime);
+        event.putDouble("fps", count * 1e9 / total);
+        event.putInt("frames", count);
+        event.putInt("slowFrames", this.slowFrames);
+        event.putDouble("jsonPerSecond", this.jsonMessages.getAndSet(0) / seconds);
+        event.putDouble("javaHeap", runtime.totalMemory() - runtime.freeMemory());
+        event.putDouble("javaHeapMax", runtime.maxMemory());
+        event.putDouble("nativeHeap", Debug.getNativeHeapAllocatedSize());
+        event.putString("url", this.view.url);
+        this.slowFrames = 0;
+        this.viewManager.emitEvent(this.view, "onTelemetry", event);
+
+        if(p95 <= this.budgetMs){
+            this.overBudgetReports = 0;
+            return;
+        }
+        this.overBudgetReports++;
+        if(this.overBudgetReports >= this.budgetReports){
+            this.overBudgetReports = 0;
+            WritableMap exceeded = Arguments.createMap();
+            exceeded.putDouble("p95", p95);
+            exceeded.putDouble("budget", this.budgetMs);
+            exceeded.putInt("reports", this.budgetReports);
+            exceeded.putString("url", this.view.url);
+            this.viewManager.emitEvent(this.view, "onFrameBudgetExceeded", exceeded);
+        }
+    }
+
+    /**
+     * @return double Percentile of the sorted frame intervals in milliseconds.
+     */
+    private double percentile(int count, double p){
+        int index = Math.min(count - 1, (int) Math.ceil(p * count) - 1);
+        return this.sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,33 @@
+package com.joaquinlom.wikitude;
+
+/**
+ * Distances between locations, for the short ranges of AR: the earth is treated as flat
+ * around the two points (equirectangular approximation), which is well within GPS accuracy
+ * over a few kilometers and cheaper than the haversine formula.
+ */
+final class GeoDistance {
+
+    static final double EARTH_RADIUS = 6371000;
+    static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private GeoDistance(){}
+
+    /**
+     * @return double Distance in meters between two locations.
+     */
+    static double meters(double lat1, double lon1, double lat2, double lon2){
+        return meters(lat1, lon1, Math.cos(Math.toRadians((lat1 + lat2) / 2)), lat2, lon2);
+    }
+
+    /**
+     * Distance for many locations around the same point, with the cosine of its latitude
+     * computed once.
+     * @param cosLat Cosine of the latitude of the first location.
+     * @return double Distance in meters between two locations.
+     */
+    static double meters(double lat1, double lon1, double cosLat, double lat2, double lon2){
+        double x = (lon2 - lon1) * cosLat;
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+}
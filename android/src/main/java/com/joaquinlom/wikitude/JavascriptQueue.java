@@ -0,0 +1,283 @@
+package com.joaquinlom.wikitude;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import com.wikitude.architect.ArchitectView;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-view queue for Javascript snippets that are sent to the Architect world.
+ * Snippets can be queued from any thread. They are merged and sent to the world in
+ * ArchitectView.callJavascript calls in the Javascript lane of the view's scheduler, either on
+ * the next frame or on the first frame after a configurable window. A flush sends chunks of
+ * snippets until the frame budget is used up, the rest is sent on the next frame.
+ *
+ * Snippets queued with a key replace any pending snippet with the same key, so only the
+ * latest "update POI 42" is executed. Once the queue is full the oldest snippets are dropped,
+ * except for required snippets, like POI deltas, that the world can't miss.
+ *
+ * Every snippet is run in its own eval inside a try/catch block, so a snippet that throws or
+ * doesn't parse doesn't stop the other snippets of its chunk, and its let/const declarations
+ * stay local to it.
+ */
+class JavascriptQueue {
+
+    // Maximum amount of pending snippets before the oldest ones are dropped
+    static final int DEFAULT_CAPACITY = 512;
+
+    // Maximum amount of snippets merged into a single callJavascript call
+    static final int CHUNK_SIZE = 64;
+
+    // Prefix for generated keys of snippets queued without a key. Can't collide with user keys.
+    private static final String ANONYMOUS_KEY = "\u0000";
+
+    private final ArchitectView view;
+    private final MainThreadScheduler scheduler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Snippet> pending = new LinkedHashMap<>();
+    // Keys of the pending snippets that are never dropped
+    private final HashSet<String> required = new HashSet<>();
+
+    private int capacity = DEFAULT_CAPACITY;
+    private long windowMs = 0;
+    private long anonymousCount = 0;
+    private boolean scheduled = false;
+    // Callbacks of the snippets of the chunk being sent, only used on the main thread
+    private final ArrayList<Runnable> sentCallbacks = new ArrayList<>();
+
+    // Statistics
+    private long queuedCount = 0;
+    private long mergedCount = 0;
+    private long supersededCount = 0;
+    private long droppedCount = 0;
+    private long flushCount = 0;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Posts the flush to the Javascript lane once the batching window passed
+    private final Runnable windowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduler.post(MainThreadScheduler.LANE_JAVASCRIPT, flushRunnable);
+        }
+    };
+
+    JavascriptQueue(ArchitectView view, MainThreadScheduler scheduler){
+        this.view = view;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the batching window. With a window of 0 the queue is flushed on the next frame.
+     * @param windowMs Time in milliseconds to collect snippets before flushing.
+     */
+    synchronized void setWindow(long windowMs){
+        this.windowMs = Math.max(0, windowMs);
+    }
+
+    synchronized void setCapacity(int capacity){
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Queues a snippet to be executed in the Architect world.
+     * @param js Javascript source to execute.
+     * @param key Optional key; a pending snippet with the same key is replaced.
+     */
+    void enqueue(String js, @Nullable String key){
+        this.enqueue(js, key, false);
+    }
+
+    /**
+     * Queues a snippet to be executed in the Architect world.
+     * @param js Javascript source to execute.
+     * @param key Optional key; a pending snippet with the same key is replaced.
+     * @param required True if the snippet must not be dropped when the queue is full.
+     */
+    void enqueue(String js, @Nullable String key, boolean required){
+        this.enqueue(js, key, required, null);
+    }
+
+    /**
+     * Queues a snippet to be executed in the Architect world.
+     * @param js Javascript source to execute.
+     * @param key Optional key; a pending snippet with the same key is replaced.
+     * @param required True if the snippet must not be dropped when the queue is full.
+     * @param onSent Optional callback, run on the main thread once the snippet was sent to the
+     *  world. Not run if the snippet is replaced, dropped or the queue is cleared.
+     */
+    void enqueue(String js, @Nullable String key, boolean required, @Nullable Runnable onSent){
+        if(js == null || js.isEmpty()){
+            return;
+        }
+        boolean overflow;
+        long window;
+        synchronized (this){
+            if(key == null){
+                key = ANONYMOUS_KEY + (this.anonymousCount++);
+            }else if(this.pending.remove(key) != null){
+                // re-insert so the latest snippet runs after everything queued before it
+                this.supersededCount++;
+            }
+            this.pending.put(key, new Snippet(js, System.nanoTime(), onSent));
+            if(required){
+                this.required.add(key);
+            }else{
+                this.required.remove(key);
+            }
+            this.queuedCount++;
+
+            overflow = this.pending.size() > this.capacity;
+            if(overflow){
+                // drop the oldest snippet that isn't required, with only required ones the queue grows
+                Iterator<String> iterator = this.pending.keySet().iterator();
+                while(iterator.hasNext()){
+                    if(!this.required.contains(iterator.next())){
+                        iterator.remove();
+                        this.droppedCount++;
+                        break;
+                    }
+                }
+            }
+            if(this.scheduled && !overflow){
+                return;
+            }
+            this.scheduled = true;
+            window = this.windowMs;
+        }
+        if(overflow){
+            // flush on the next frame instead of waiting for the window
+            this.mainHandler.removeCallbacks(this.windowRunnable);
+            this.scheduler.post(MainThreadScheduler.LANE_JAVASCRIPT, this.flushRunnable);
+        }else if(window > 0){
+            this.mainHandler.postDelayed(this.windowRunnable, window);
+        }else{
+            this.scheduler.post(MainThreadScheduler.LANE_JAVASCRIPT, this.flushRunnable);
+        }
+    }
+
+    /**
+     * Sends the pending snippets to the world in chunks of up to {@link #CHUNK_SIZE} snippets,
+     * until the frame budget of the scheduler is used up. At least one chunk is sent, the
+     * remaining snippets are posted to the next frame. Must be called on the main thread.
+     */
+    void flush(){
+        do{
+            String script = this.takeChunk(this.sentCallbacks);
+            if(script == null){
+                return;
+            }
+            BridgeMetrics.count(BridgeMetrics.JS_BYTES, script.length());
+            this.view.callJavascript(script);
+            for(Runnable callback : this.sentCallbacks){
+                callback.run();
+            }
+            this.sentCallbacks.clear();
+        }while(this.scheduler.getRemainingFrameNanos() > 0);
+
+        synchronized (this){
+            if(this.pending.isEmpty()){
+                this.scheduled = false;
+                return;
+            }
+        }
+        this.scheduler.post(MainThreadScheduler.LANE_JAVASCRIPT, this.flushRunnable);
+    }
+
+    /**
+     * Removes the oldest chunk of snippets from the queue.
+     * @param sent Receives the callbacks of the snippets in the chunk.
+     * @return String The merged chunk, or null if the queue is empty.
+     */
+    @Nullable
+    private synchronized String takeChunk(ArrayList<Runnable> sent){
+        int size = Math.min(this.pending.size(), CHUNK_SIZE);
+        if(size == 0){
+            this.scheduled = false;
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        Iterator<Map.Entry<String, Snippet>> iterator = this.pending.entrySet().iterator();
+        long oldestNanos = Long.MAX_VALUE;
+        for(int i = 0; i < size; i++){
+            Map.Entry<String, Snippet> entry = iterator.next();
+            Snippet snippet = entry.getValue();
+            // quoted, so a syntax error only fails the eval of its own snippet
+            builder.append("try{eval(").append(JSONObject.quote(snippet.js))
+                    .append(");}catch(e){console.error(e);}\n");
+            oldestNanos = Math.min(oldestNanos, snippet.queuedNanos);
+            if(snippet.onSent != null){
+                sent.add(snippet.onSent);
+            }
+            this.required.remove(entry.getKey());
+            iterator.remove();
+        }
+        if(size > 1){
+            this.mergedCount += size;
+        }
+        this.flushCount++;
+        BridgeMetrics.record(BridgeMetrics.JS_QUEUE, oldestNanos);
+        return builder.toString();
+    }
+
+    /**
+     * Drops all pending snippets, for example when the view is destroyed.
+     */
+    void clear(){
+        synchronized (this){
+            this.pending.clear();
+            this.required.clear();
+            this.scheduled = false;
+        }
+        this.mainHandler.removeCallbacks(this.windowRunnable);
+        this.scheduler.cancel(MainThreadScheduler.LANE_JAVASCRIPT);
+    }
+
+    synchronized int getDepth(){
+        return this.pending.size();
+    }
+    synchronized long getQueuedCount(){
+        return this.queuedCount;
+    }
+    synchronized long getMergedCount(){
+        return this.mergedCount;
+    }
+    synchronized long getSupersededCount(){
+        return this.supersededCount;
+    }
+    synchronized long getDroppedCount(){
+        return this.droppedCount;
+    }
+    synchronized long getFlushCount(){
+        return this.flushCount;
+    }
+
+    private static final class Snippet {
+        final String js;
+        // System.nanoTime() when the snippet was queued
+        final long queuedNanos;
+        @Nullable
+        final Runnable onSent;
+
+        Snippet(String js, long queuedNanos, @Nullable Runnable onSent){
+            this.js = js;
+            this.queuedNanos = queuedNanos;
+            this.onSent = onSent;
+        }
+    }
+}
@@ -8,6 +8,8 @@
 
 package com.joaquinlom.wikitude;
 
+import android.util.JsonWriter;
+
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
@@ -20,9 +22,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Iterator;
 
 public abstract class JsonConvert {
+    // Largest integer a JS number can represent exactly
+    private static final double MAX_SAFE_INTEGER = 9007199254740991d;
+
     public static JSONObject reactToJSON(ReadableMap readableMap) throws JSONException {
         JSONObject jsonObject = new JSONObject();
         ReadableMapKeySetIterator iterator = readableMap.keySetIterator();
@@ -37,10 +44,13 @@ public abstract class JsonConvert {
                     jsonObject.put(key, readableMap.getBoolean(key));
                     break;
                 case Number:
-                    try {
-                        jsonObject.put(key, readableMap.getInt(key));
-                    } catch(Exception e) {
-                        jsonObject.put(key, readableMap.getDouble(key));
+                    double number = readableMap.getDouble(key);
+                    if (isIntegral(number)) {
+                        jsonObject.put(key, (long) number);
+                    } else if (Double.isNaN(number) || Double.isInfinite(number)) {
+                        jsonObject.put(key, JSONObject.NULL);
+                    } else {
+                        jsonObject.put(key, number);
                     }
                     break;
                 case String:
@@ -60,7 +70,8 @@ public abstract class JsonConvert {
 
     public static JSONArray reactToJSON(ReadableArray readableArray) throws JSONException {
         JSONArray jsonArray = new JSONArray();
-        for(int i=0; i < readableArray.size(); i++) {
+        int size = readableArray.size();
+        for(int i=0; i < size; i++) {
             ReadableType valueType = readableArray.getType(i);
             switch (valueType){
                 case Null:
@@ -70,10 +81,13 @@ public abstract class JsonConvert {
                     jsonArray.put(readableArray.getBoolean(i));
                     break;
                 case Number:
-                    try {
-                        jsonArray.put(readableArray.getInt(i));
-                    } catch(Exception e) {
-                        jsonArray.put(readableArray.getDouble(i));
+                    double number = readableArray.getDouble(i);
+                    if (isIntegral(number)) {
+                        jsonArray.put((long) number);
+                    } else if (Double.isNaN(number) || Double.isInfinite(number)) {
+                        jsonArray.put(JSONObject.NULL);
+                    } else {
+                        jsonArray.put(number);
                     }
                     break;
                 case String:
@@ -90,23 +104,131 @@ public abstract class JsonConvert {
         return jsonArray;
     }
 
+    /**
+     * Serializes a ReadableMap to a JSON string without building a JSONObject tree.
+     */
+    public static String reactToJSONString(ReadableMap readableMap) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonWriter writer = new JsonWriter(stringWriter);
+        writeJSON(writer, readableMap);
+        writer.close();
+        return stringWriter.toString();
+    }
+
+    /**
+     * Serializes a ReadableArray to a JSON string without building a JSONArray tree.
+     */
+    public static String reactToJSONString(ReadableArray readableArray) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonWriter writer = new JsonWriter(stringWriter);
+        writeJSON(writer, readableArray);
+        writer.close();
+        return stringWriter.toString();
+    }
+
+    public static void writeJSON(JsonWriter writer, ReadableMap readableMap) throws IOException {
+        writer.beginObject();
+        ReadableMapKeySetIterator iterator = readableMap.keySetIterator();
+        while(iterator.hasNextKey()){
+            String key = iterator.nextKey();
+            writer.name(key);
+            switch (readableMap.getType(key)){
+                case Null:
+                    writer.nullValue();
+                    break;
+                case Boolean:
+                    writer.value(readableMap.getBoolean(key));
+                    break;
+                case Number:
+                    writeNumber(writer, readableMap.getDouble(key));
+                    break;
+                case String:
+                    writer.value(readableMap.getString(key));
+                    break;
+                case Map:
+                    writeJSON(writer, readableMap.getMap(key));
+                    break;
+                case Array:
+                    writeJSON(writer, readableMap.getArray(key));
+                    break;
+            }
+        }
+        writer.endObject();
+    }
+
+    public static void writeJSON(JsonWriter writer, ReadableArray readableArray) throws IOException {
+        writer.beginArray();
+        int size = readableArray.size();
+        for(int i=0; i < size; i++) {
+            switch (readableArray.getType(i)){
+                case Null:
+                    writer.nullValue();
+                    break;
+                case Boolean:
+                    writer.value(readableArray.getBoolean(i));
+                    break;
+                case Number:
+                    writeNumber(writer, readableArray.getDouble(i));
+                    break;
+                case String:
+                    writer.value(readableArray.getString(i));
+                    break;
+                case Map:
+                    writeJSON(writer, readableArray.getMap(i));
+                    break;
+                case Array:
+                    writeJSON(writer, readableArray.getArray(i));
+                    break;
+            }
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes NaN and Infinity as null like JSON.stringify, JSON has no literal for them.
+     */
+    private static void writeNumber(JsonWriter writer, double number) throws IOException {
+        if (isIntegral(number)) {
+            writer.value((long) number);
+        } else if (Double.isNaN(number) || Double.isInfinite(number)) {
+            writer.nullValue();
+        } else {
+            writer.value(number);
+        }
+    }
+
+    /**
+     * Whether a number received from React has no fractional part and can be written as a long
+     * without losing precision. React sends all numbers as doubles.
+     */
+    static boolean isIntegral(double number) {
+        return number == Math.rint(number) && Math.abs(number) <= MAX_SAFE_INTEGER;
+    }
+
+    /**
+     * Converts a JSONObject to a WritableMap in a single pass.
+     * Each value is looked up once, and numbers keep their type: integers that fit in an
+     * int are sent as ints, all other numbers as doubles instead of being truncated.
+     */
     public static WritableMap jsonToReact(JSONObject jsonObject) throws JSONException {
         WritableMap writableMap = Arguments.createMap();
-        Iterator iterator = jsonObject.keys();
+        Iterator<String> iterator = jsonObject.keys();
         while(iterator.hasNext()) {
-            String key = (String) iterator.next();
-            Object value = jsonObject.get(key);
-            if (value instanceof Float || value instanceof Double) {
-                writableMap.putDouble(key, jsonObject.getDouble(key));
+            String key = iterator.next();
+            Object value = jsonObject.opt(key);
+            if (value instanceof String) {
+                writableMap.putString(key, (String) value);
+            } else if (value instanceof Integer) {
+                writableMap.putInt(key, (Integer) value);
             } else if (value instanceof Number) {
-                writableMap.putInt(key, jsonObject.getInt(key));
-            } else if (value instanceof String) {
-                writableMap.putString(key, jsonObject.getString(key));
+                putNumber(writableMap, key, (Number) value);
+            } else if (value instanceof Boolean) {
+                writableMap.putBoolean(key, (Boolean) value);
             } else if (value instanceof JSONObject) {
-                writableMap.putMap(key,jsonToReact(jsonObject.getJSONObject(key)));
+                writableMap.putMap(key, jsonToReact((JSONObject) value));
             } else if (value instanceof JSONArray){
-                writableMap.putArray(key, jsonToReact(jsonObject.getJSONArray(key)));
-            } else if (value == JSONObject.NULL){
+                writableMap.putArray(key, jsonToReact((JSONArray) value));
+            } else if (value == null || value == JSONObject.NULL){
                 writableMap.putNull(key);
             }
         }
@@ -116,22 +238,41 @@ public abstract class JsonConvert {
 
     public static WritableArray jsonToReact(JSONArray jsonArray) throws JSONException {
         WritableArray writableArray = Arguments.createArray();
-        for(int i=0; i < jsonArray.length(); i++) {
-            Object value = jsonArray.get(i);
-            if (value instanceof Float || value instanceof Double) {
-                writableArray.pushDouble(jsonArray.getDouble(i));
+        int length = jsonArray.length();
+        for(int i=0; i < length; i++) {
+            Object value = jsonArray.opt(i);
+            if (value instanceof String) {
+                writableArray.pushString((String) value);
+            } else if (value instanceof Integer) {
+                writableArray.pushInt((Integer) value);
             } else if (value instanceof Number) {
-                writableArray.pushInt(jsonArray.getInt(i));
-            } else if (value instanceof String) {
-                writableArray.pushString(jsonArray.getString(i));
+                pushNumber(writableArray, (Number) value);
+            } else if (value instanceof Boolean) {
+                writableArray.pushBoolean((Boolean) value);
             } else if (value instanceof JSONObject) {
-                writableArray.pushMap(jsonToReact(jsonArray.getJSONObject(i)));
+                writableArray.pushMap(jsonToReact((JSONObject) value));
             } else if (value instanceof JSONArray){
-                writableArray.pushArray(jsonToReact(jsonArray.getJSONArray(i)));
-            } else if (value == JSONObject.NULL){
+                writableArray.pushArray(jsonToReact((JSONArray) value));
+            } else if (value == null || value == JSONObject.NULL){
                 writableArray.pushNull();
             }
         }
         return writableArray;
     }
-}
\ No newline at end of file
+
+    private static void putNumber(WritableMap map, String key, Number value){
+        if (value instanceof Long && (Long) value == value.intValue()) {
+            map.putInt(key, value.intValue());
+        } else {
+            map.putDouble(key, value.doubleValue());
+        }
+    }
+
+    private static void pushNumber(WritableArray array, Number value){
+        if (value instanceof Long && (Long) value == value.intValue()) {
+            array.pushInt(value.intValue());
+        } else {
+            array.pushDouble(value.doubleValue());
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.joaquinlom.wikitude;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Filters the locations injected into a view before they reach the SDK.
+ *
+ * Locations are processed on a background thread. They can be throttled to a minimum interval,
+ * dropped when they are less accurate than a threshold or closer than a minimum distance to the
+ * last location, and smoothed with a low-pass or Kalman filter. The result is handed to the main
+ * thread as a single coalesced setLocation call in the location lane of the view's scheduler;
+ * if the main thread is busy, only the newest location is applied.
+ */
+class LocationPipeline {
+
+    /**
+     * Receives the filtered locations on the main thread.
+     */
+    interface Target {
+        void injectLocation(double lat, double lon, double alt, float accuracy);
+    }
+
+    static final String SMOOTHING_NONE = "none";
+    static final String SMOOTHING_LOW_PASS = "lowpass";
+    static final String SMOOTHING_KALMAN = "kalman";
+
+    // Accuracy used when none was injected, in meters
+    static final float DEFAULT_ACCURACY = 100f;
+    static final double DEFAULT_SMOOTHING_FACTOR = 0.5;
+    // Meters per second
+    static final double DEFAULT_PROCESS_NOISE = 3;
+
+    private static HandlerThread thread;
+
+    private final MainThreadScheduler scheduler;
+    private final Target target;
+    private final Handler handler;
+
+    // Configuration, only accessed on the pipeline thread
+    private long minIntervalMs = 0;
+    private double minDistance = 0;
+    private double maxAccuracy = 0;
+    private String smoothing = SMOOTHING_NONE;
+    private double smoothingFactor = DEFAULT_SMOOTHING_FACTOR;
+    private double processNoise = DEFAULT_PROCESS_NOISE;
+
+    // Filter state, only accessed on the pipeline thread
+    private boolean hasPending = false;
+    private double pendingLat, pendingLon, pendingAlt;
+    private float pendingAccuracy;
+    private long pendingTime;
+    private boolean hasFiltered = false;
+    private double filteredLat, filteredLon, filteredAlt;
+    private double variance = -1;
+    private long filteredTime;
+    private boolean hasEmitted = false;
+    private double emittedLat, emittedLon;
+    private long emittedTime;
+    private boolean emitScheduled = false;
+
+    // Location handed to the main thread
+    private final Object outputLock = new Object();
+    private double outputLat, outputLon, outputAlt;
+    private float outputAccuracy;
+    private boolean outputPending = false;
+
+    private final Runnable emitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            emitScheduled = false;
+            emit();
+        }
+    };
+
+    private final Runnable applyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            double lat, lon, alt;
+            float accuracy;
+            synchronized (outputLock){
+                if(!outputPending){
+                    return;
+                }
+                outputPending = false;
+                lat = outputLat;
+                lon = outputLon;
+                alt = outputAlt;
+                accuracy = outputAccuracy;
+            }
+            target.injectLocation(lat, lon, alt, accuracy);
+        }
+    };
+
+    LocationPipeline(MainThreadScheduler scheduler, Target target){
+        this(scheduler, target, getLooper());
+    }
+
+    /**
+     * @param looper Looper of the thread that filters the locations.
+     */
+    LocationPipeline(MainThreadScheduler scheduler, Target target, Looper looper){
+        this.scheduler = scheduler;
+        this.target = target;
+        this.handler = new Handler(looper);
+    }
+
+    private static synchronized Looper getLooper(){
+        if(thread == null){
+            thread = new HandlerThread("WikitudeLocation", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+        }
+        return thread.getLooper();
+    }
+
+    /**
+     * Configures the pipeline. Keys that are missing keep their current value.
+     *  - minInterval:     Minimum time between two locations in milliseconds.
+     *  - minDistance:     Minimum distance in meters from the last location.
+     *  - maxAccuracy:     Locations with a worse accuracy in meters are dropped. 0 to keep all.
+     *  - smoothing:       'none', 'lowpass' or 'kalman'.
+     *  - smoothingFactor: Weight of a new location for the low-pass filter, 0 - 1.
+     *  - processNoise:    Expected speed in meters per second for the Kalman filter.
+     */
+    void configure(final ReadableMap config){
+        final long minInterval = config.hasKey("minInterval") ? (long) config.getDouble("minInterval") : -1;
+        final double distance = config.hasKey("minDistance") ? config.getDouble("minDistance") : -1;
+        final double accuracy = config.hasKey("maxAccuracy") ? config.getDouble("maxAccuracy") : -1;
+        final String smoothingMode = config.hasKey("smoothing") ? config.getString("smoothing") : null;
+        final double factor = config.hasKey("smoothingFactor") ? config.getDouble("smoothingFactor") : -1;
+        final double noise = config.hasKey("processNoise") ? config.getDouble("processNoise") : -1;
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(minInterval >= 0){
+                    minIntervalMs = minInterval;
+                }
+                if(distance >= 0){
+                    minDistance = distance;
+                }
+                if(accuracy >= 0){
+                    maxAccuracy = accuracy;
+                }
+                if(smoothingMode != null && !smoothingMode.equals(smoothing)){
+                    smoothing = smoothingMode;
+                    hasFiltered = false;
+                    variance = -1;
+                }
+                if(factor > 0){
+                    smoothingFactor = Math.min(1, factor);
+                }
+                if(noise > 0){
+                    processNoise = noise;
+                }
+            }
+        });
+    }
+
+    /**
+     * Submits a location. Can be called from any thread.
+     * @param lat Latitude.
+     * @param lon Longitude.
+     * @param alt Altitude in meters, NaN if unknown.
+     * @param accuracy Accuracy in meters, NaN or 0 if unknown.
+     */
+    void submit(final double lat, final double lon, final double alt, final float accuracy){
+        final long time = SystemClock.uptimeMillis();
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                receive(lat, lon, alt, Float.isNaN(accuracy) || accuracy <= 0 ? DEFAULT_ACCURACY : accuracy, time);
+            }
+        });
+    }
+
+    /**
+     * Drops the locations that are filtered or waiting for the main thread, for example when
+     * the view is parked or destroyed. Locations submitted afterwards are processed again.
+     * Must be called together with, or instead of, clearing the location lane of the scheduler.
+     */
+    void stop(){
+        this.handler.removeCallbacksAndMessages(null);
+        this.scheduler.cancel(MainThreadScheduler.LANE_LOCATION);
+        synchronized (this.outputLock){
+            // the apply operation was dropped, the next location has to post a new one
+            this.outputPending = false;
+        }
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // the delayed emit was removed, the next throttled location has to post a new one
+                emitScheduled = false;
+                hasPending = false;
+            }
+        });
+    }
+
+    /**
+     * Stops the pipeline and forgets its configuration and filter state, like the last emitted
+     * location and the Kalman variance, so a reused view starts like a new one.
+     */
+    void reset(){
+        this.stop();
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                minIntervalMs = 0;
+                minDistance = 0;
+                maxAccuracy = 0;
+                smoothing = SMOOTHING_NONE;
+                smoothingFactor = DEFAULT_SMOOTHING_FACTOR;
+                processNoise = DEFAULT_PROCESS_NOISE;
+                hasFiltered = false;
+                variance = -1;
+                hasEmitted = false;
+            }
+        });
+    }
+
+    private void receive(double lat, double lon, double alt, float accuracy, long time){
+        if(this.maxAccuracy > 0 && accuracy > this.maxAccuracy){
+            return;
+        }
+        this.pendingLat = lat;
+        this.pendingLon = lon;
+        this.pendingAlt = alt;
+        this.pendingAccuracy = accuracy;
+        this.pendingTime = time;
+        this.hasPending = true;
+
+        long wait = this.hasEmitted ? this.emittedTime + this.minIntervalMs - time : 0;
+        if(wait <= 0){
+            this.handler.removeCallbacks(this.emitRunnable);
+            this.emitScheduled = false;
+            this.emit();
+        }else if(!this.emitScheduled){
+            // throttled: only the newest location is emitted once the interval is over
+            this.emitScheduled = true;
+            this.handler.postDelayed(this.emitRunnable, wait);
+        }
+    }
+
+    private void emit(){
+        if(!this.hasPending){
+            return;
+        }
+        this.hasPending = false;
+        this.smooth(this.pendingLat, this.pendingLon, this.pendingAlt, this.pendingAccuracy, this.pendingTime);
+
+        if(this.hasEmitted && this.minDistance > 0
+                && GeoDistance.meters(this.emittedLat, this.emittedLon, this.filteredLat, this.filteredLon) < this.minDistance){
+            return;
+        }
+        this.hasEmitted = true;
+        this.emittedLat = this.filteredLat;
+        this.emittedLon = this.filteredLon;
+        this.emittedTime = this.pendingTime;
+
+        boolean post;
+        synchronized (this.outputLock){
+            post = !this.outputPending;
+            this.outputPending = true;
+            this.outputLat = this.filteredLat;
+            this.outputLon = this.filteredLon;
+            this.outputAlt = this.filteredAlt;
+            this.outputAccuracy = this.pendingAccuracy;
+        }
+        if(post){
+            this.scheduler.post(MainThreadScheduler.LANE_LOCATION, this.applyRunnable);
+        }
+    }
+
+    private void smooth(double lat, double lon, double alt, float accuracy, long time){
+        if(!this.hasFiltered || SMOOTHING_NONE.equals(this.smoothing)){
+            this.filteredLat = lat;
+            this.filteredLon = lon;
+            this.filteredAlt = alt;
+            this.filteredTime = time;
+            this.variance = (double) accuracy * accuracy;
+            this.hasFiltered = true;
+            return;
+        }
+        double gain;
+        if(SMOOTHING_KALMAN.equals(this.smoothing)){
+            // uncertainty grows with the time since the last location
+            long dt = Math.max(0, time - this.filteredTime);
+            this.variance += dt * this.processNoise * this.processNoise / 1000d;
+            gain = this.variance / (this.variance + (double) accuracy * accuracy);
+            this.variance = (1 - gain) * this.variance;
+        }else{
+            gain = this.smoothingFactor;
+        }
+        this.filteredLat += gain * (lat - this.filteredLat);
+        this.filteredLon += gain * (lon - this.filteredLon);
+        if(Double.isNaN(this.filteredAlt)){
+            this.filteredAlt = alt;
+        }else if(!Double.isNaN(alt)){
+            this.filteredAlt += gain * (alt - this.filteredAlt);
+        }
+        this.filteredTime = time;
+    }
+}
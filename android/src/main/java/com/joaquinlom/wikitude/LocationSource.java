@@ -0,0 +1,27 @@
+package com.joaquinlom.wikitude;
+
+/**
+ * Source of device locations that feeds a view directly from native code,
+ * without passing every location through React.
+ */
+interface LocationSource {
+
+    interface Listener {
+        /**
+         * Called for every new location. May be called on any thread.
+         * @param lat Latitude.
+         * @param lon Longitude.
+         * @param alt Altitude in meters, NaN if unknown.
+         * @param accuracy Accuracy in meters, NaN if unknown.
+         */
+        void onLocation(double lat, double lon, double alt, float accuracy);
+    }
+
+    /**
+     * Starts delivering locations to the listener.
+     * @return boolean False if the source could not be started, Ex. missing permissions.
+     */
+    boolean start(Listener listener);
+
+    void stop();
+}
@@ -0,0 +1,210 @@
+package com.joaquinlom.wikitude;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Per-view scheduler for operations that have to run on the main thread.
+ *
+ * Operations run on the next Choreographer frame, in the order of their lanes: lifecycle
+ * changes first, then URL changes, locations and Javascript. Each lane holds one pending
+ * operation, and a newer operation replaces it, so a pause followed by a resume within a
+ * frame only resumes, and only the latest URL is loaded. Operations that need all their
+ * inputs, like the Javascript queue, keep them themselves and are posted as one operation.
+ *
+ * Once the operations of a frame took longer than the frame budget, the remaining lanes
+ * run on the next frame, so a burst of commands can't block the main thread for a frame.
+ * Operations that can be split, like flushing the Javascript queue, check
+ * {@link #getRemainingFrameNanos()} and post the rest of their work again.
+ */
+class MainThreadScheduler implements Choreographer.FrameCallback {
+
+    static final int LANE_LIFECYCLE = 0;
+    static final int LANE_URL = 1;
+    static final int LANE_LOCATION = 2;
+    static final int LANE_JAVASCRIPT = 3;
+    private static final int LANES = 4;
+
+    // Half a 60 fps frame, the rest is left to rendering
+    static final long FRAME_BUDGET_NANOS = 8000000;
+
+    private final WikitudeView view;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable[] pending = new Runnable[LANES];
+    private boolean scheduled = false;
+    // System.nanoTime() when the current frame's operations started, 0 outside of a frame
+    private long frameStartNanos = 0;
+
+    // Statistics
+    private long supersededCount = 0;
+    private long deferredFrames = 0;
+
+    // Inputs of the typed operations, read when they run
+    private String pendingUrl;
+    private boolean pendingResumed;
+
+    private final Runnable urlOperation = new Runnable() {
+        @Override
+        public void run() {
+            String url;
+            synchronized (MainThreadScheduler.this){
+                url = pendingUrl;
+            }
+            view.setUrl(url);
+        }
+    };
+
+    private final Runnable lifecycleOperation = new Runnable() {
+        @Override
+        public void run() {
+            boolean resumed;
+            synchronized (MainThreadScheduler.this){
+                resumed = pendingResumed;
+            }
+            if(resumed){
+                view.onResume();
+            }else{
+                view.onPause();
+            }
+        }
+    };
+
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(MainThreadScheduler.this);
+        }
+    };
+
+    MainThreadScheduler(WikitudeView view){
+        this.view = view;
+    }
+
+    /**
+     * Posts an operation to run on the next frame. Can be called from any thread.
+     * @param lane Lane of the operation, Ex. {@link #LANE_LOCATION}.
+     * @param operation Operation; replaces the pending operation of the lane.
+     */
+    void post(int lane, Runnable operation){
+        synchronized (this){
+            if(this.pending[lane] != null){
+                this.supersededCount++;
+            }
+            this.pending[lane] = operation;
+            if(this.scheduled){
+                return;
+            }
+            this.scheduled = true;
+        }
+        if(Looper.myLooper() == Looper.getMainLooper()){
+            Choreographer.getInstance().postFrameCallback(this);
+        }else{
+            this.mainHandler.post(this.frameRunnable);
+        }
+    }
+
+    /**
+     * Sets the URL of the view on the next frame.
+     */
+    void setUrl(String url){
+        synchronized (this){
+            this.pendingUrl = url;
+        }
+        this.post(LANE_URL, this.urlOperation);
+    }
+
+    /**
+     * Resumes or pauses the view on the next frame. Only the latest state of a frame is applied.
+     */
+    void setResumed(boolean resumed){
+        synchronized (this){
+            this.pendingResumed = resumed;
+        }
+        this.post(LANE_LIFECYCLE, this.lifecycleOperation);
+    }
+
+    /**
+     * Drops the pending operation of a lane.
+     */
+    synchronized void cancel(int lane){
+        this.pending[lane] = null;
+    }
+
+    /**
+     * Drops all pending operations, for example when the view is destroyed.
+     */
+    void clear(){
+        synchronized (this){
+            for(int lane = 0; lane < LANES; lane++){
+                this.pending[lane] = null;
+            }
+            this.scheduled = false;
+        }
+        this.mainHandler.removeCallbacks(this.frameRunnable);
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * @return long Nanoseconds left of the frame budget while operations run, Ex. to split
+     *  long operations over frames. Outside of a frame the whole budget.
+     */
+    long getRemainingFrameNanos(){
+        if(this.frameStartNanos == 0){
+            return FRAME_BUDGET_NANOS;
+        }
+        return FRAME_BUDGET_NANOS - (System.nanoTime() - this.frameStartNanos);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        this.frameStartNanos = System.nanoTime();
+        try{
+            for(int lane = 0; lane < LANES; lane++){
+                Runnable operation;
+                synchronized (this){
+                    operation = this.pending[lane];
+                    this.pending[lane] = null;
+                }
+                if(operation == null){
+                    continue;
+                }
+                operation.run();
+                if(this.getRemainingFrameNanos() < 0){
+                    break;
+                }
+            }
+        }finally {
+            // also when an operation throws, so the remaining lanes still run on a later frame
+            this.frameStartNanos = 0;
+            this.scheduleNext();
+        }
+    }
+
+    /**
+     * Posts the next frame if operations are left, Ex. out of budget or posted while running.
+     */
+    private void scheduleNext(){
+        synchronized (this){
+            this.scheduled = false;
+            for(int lane = 0; lane < LANES; lane++){
+                if(this.pending[lane] != null){
+                    this.scheduled = true;
+                    this.deferredFrames++;
+                    break;
+                }
+            }
+            if(!this.scheduled){
+                return;
+            }
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    synchronized long getSupersededCount(){
+        return this.supersededCount;
+    }
+    synchronized long getDeferredFrames(){
+        return this.deferredFrames;
+    }
+}
@@ -0,0 +1,118 @@
+package com.joaquinlom.wikitude;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * Location source backed by the platform LocationManager.
+ * Uses the fused provider when the device has one, GPS and network locations otherwise.
+ * Locations are delivered on a background thread.
+ */
+class PlatformLocationSource implements LocationSource {
+
+    private static final String TAG = "PlatformLocationSource";
+    // LocationManager.FUSED_PROVIDER and Build.VERSION_CODES.S, which need compileSdk 31
+    private static final String FUSED_PROVIDER = "fused";
+    private static final int ANDROID_S = 31;
+
+    private final Context context;
+    private final long minIntervalMs;
+    private final float minDistance;
+    private HandlerThread thread;
+    private LocationListener locationListener;
+
+    /**
+     * @param context Application context.
+     * @param minIntervalMs Minimum time between locations requested from the platform.
+     * @param minDistance Minimum distance in meters between locations requested from the platform.
+     */
+    PlatformLocationSource(Context context, long minIntervalMs, float minDistance){
+        this.context = context.getApplicationContext();
+        this.minIntervalMs = minIntervalMs;
+        this.minDistance = minDistance;
+    }
+
+    @Override
+    public boolean start(final Listener listener) {
+        if(ContextCompat.checkSelfPermission(this.context, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED
+                && ContextCompat.checkSelfPermission(this.context, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED){
+            WikitudeLog.w(TAG, "Location permission not granted.");
+            return false;
+        }
+        LocationManager manager = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
+        if(manager == null){
+            return false;
+        }
+        this.stop();
+
+        this.thread = new HandlerThread("WikitudeLocationSource", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.locationListener = new LocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                listener.onLocation(location.getLatitude(), location.getLongitude(),
+                        location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                        location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+            }
+
+            @Override
+            public void onStatusChanged(String provider, int status, Bundle extras) {}
+
+            @Override
+            public void onProviderEnabled(String provider) {}
+
+            @Override
+            public void onProviderDisabled(String provider) {}
+        };
+
+        try{
+            if(Build.VERSION.SDK_INT >= ANDROID_S && manager.getAllProviders().contains(FUSED_PROVIDER)){
+                manager.requestLocationUpdates(FUSED_PROVIDER, this.minIntervalMs, this.minDistance,
+                        this.locationListener, this.thread.getLooper());
+            }else{
+                boolean requested = false;
+                for(String provider : new String[]{LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER}){
+                    if(manager.getProviders(false).contains(provider)){
+                        manager.requestLocationUpdates(provider, this.minIntervalMs, this.minDistance,
+                                this.locationListener, this.thread.getLooper());
+                        requested = true;
+                    }
+                }
+                if(!requested){
+                    this.stop();
+                    return false;
+                }
+            }
+        }catch(SecurityException e){
+            WikitudeLog.e(TAG, "Error requesting location updates: %s", e);
+            this.stop();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if(this.locationListener != null){
+            LocationManager manager = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
+            if(manager != null){
+                manager.removeUpdates(this.locationListener);
+            }
+            this.locationListener = null;
+        }
+        if(this.thread != null){
+            this.thread.quitSafely();
+            this.thread = null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.joaquinlom.wikitude;
+
+import android.util.LongSparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over latitude/longitude for finding the POIs near a location.
+ * Cells are {@link #CELL_DEGREES} degrees on each side and store the indices of their POIs
+ * in primitive arrays. Queries search rings of cells around the location, nearest ring first.
+ *
+ * Distances use an equirectangular approximation, which is accurate enough for culling at
+ * city scale. Wrapping around the antimeridian is not handled.
+ */
+class PoiGridIndex {
+
+    // About 1.1km at the equator
+    static final double CELL_DEGREES = 0.01;
+
+    private final int[] ids;
+    private final double[] lats;
+    private final double[] lons;
+    private final LongSparseArray<int[]> cells = new LongSparseArray<>();
+
+    private int minLatCell = Integer.MAX_VALUE;
+    private int maxLatCell = Integer.MIN_VALUE;
+    private int minLonCell = Integer.MAX_VALUE;
+    private int maxLonCell = Integer.MIN_VALUE;
+
+    // Reused between queries; queries run on a single thread
+    private long[] candidates = new long[64];
+
+    /**
+     * Builds the index.
+     * @param ids Ids of the POIs.
+     * @param lats Latitudes of the POIs.
+     * @param lons Longitudes of the POIs.
+     */
+    PoiGridIndex(int[] ids, double[] lats, double[] lons){
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+
+        // count the POIs per cell first, so every cell array is allocated once at its final size
+        LongSparseArray<int[]> counts = new LongSparseArray<>();
+        for(int i = 0; i < ids.length; i++){
+            int latCell = cell(lats[i]);
+            int lonCell = cell(lons[i]);
+            this.minLatCell = Math.min(this.minLatCell, latCell);
+            this.maxLatCell = Math.max(this.maxLatCell, latCell);
+            this.minLonCell = Math.min(this.minLonCell, lonCell);
+            this.maxLonCell = Math.max(this.maxLonCell, lonCell);
+            long key = key(latCell, lonCell);
+            int[] count = counts.get(key);
+            if(count == null){
+                counts.put(key, new int[]{1});
+            }else{
+                count[0]++;
+            }
+        }
+        for(int i = 0; i < counts.size(); i++){
+            // the last slot is the fill position while building
+            this.cells.put(counts.keyAt(i), new int[counts.valueAt(i)[0] + 1]);
+        }
+        for(int i = 0; i < ids.length; i++){
+            int[] cell = this.cells.get(key(cell(lats[i]), cell(lons[i])));
+            cell[cell[cell.length - 1]++] = i;
+        }
+    }
+
+    int size(){
+        return this.ids.length;
+    }
+
+    /**
+     * Finds the POIs within a radius of a location, nearest first.
+     * @param lat Latitude of the location.
+     * @param lon Longitude of the location.
+     * @param radius Maximum distance in meters, 0 for no limit.
+     * @param maxCount Maximum number of POIs, 0 for no limit.
+     * @return int[] Ids of the found POIs.
+     */
+    int[] query(double lat, double lon, double radius, int maxCount){
+        if(this.ids.length == 0){
+            return new int[0];
+        }
+        double cosLat = Math.cos(Math.toRadians(lat));
+        // smallest side of a cell at this latitude, the distance covered by each ring
+        double cellMeters = CELL_DEGREES * GeoDistance.METERS_PER_DEGREE * Math.max(0.01, Math.min(1, cosLat));
+        int latCell = cell(lat);
+        int lonCell = cell(lon);
+        int maxRing = Math.max(
+                Math.max(Math.abs(latCell - this.minLatCell), Math.abs(latCell - this.maxLatCell)),
+                Math.max(Math.abs(lonCell - this.minLonCell), Math.abs(lonCell - this.maxLonCell)));
+
+        if(radius > 0){
+            maxRing = (int) Math.min(maxRing, Math.ceil(radius / cellMeters) + 1);
+        }
+
+        int found = 0;
+        if((2L * maxRing + 1) * (2L * maxRing + 1) > 4L * this.ids.length){
+            // sparse POIs over a large area, checking every POI is cheaper than visiting the cells
+            for(int index = 0; index < this.ids.length; index++){
+                found = this.addCandidate(found, lat, lon, cosLat, radius, index);
+            }
+            maxRing = -1;
+        }
+        for(int ring = 0; ring <= maxRing; ring++){
+            double ringDistance = (ring - 1) * cellMeters;
+            if(radius > 0 && ringDistance > radius){
+                break;
+            }
+            if(maxCount > 0 && found >= maxCount && ringDistance > kthDistance(found, maxCount)){
+                break;
+            }
+            for(int dLat = -ring; dLat <= ring; dLat++){
+                // only the cells on the edge of the ring
+                int step = (dLat == -ring || dLat == ring) ? 1 : 2 * ring;
+                for(int dLon = -ring; dLon <= ring; dLon += Math.max(1, step)){
+                    int[] cell = this.cells.get(key(latCell + dLat, lonCell + dLon));
+                    if(cell == null){
+                        continue;
+                    }
+                    for(int c = 0; c < cell.length - 1; c++){
+                        found = this.addCandidate(found, lat, lon, cosLat, radius, cell[c]);
+                    }
+                }
+            }
+            if(maxCount > 0 && found > maxCount){
+                // keep the candidate list small while rings are added
+                Arrays.sort(this.candidates, 0, found);
+                found = maxCount;
+            }
+        }
+
+        Arrays.sort(this.candidates, 0, found);
+        int count = maxCount > 0 ? Math.min(found, maxCount) : found;
+        int[] result = new int[count];
+        for(int i = 0; i < count; i++){
+            result[i] = this.ids[(int) this.candidates[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Adds a POI to the candidates if it is within the radius.
+     * @return int The new number of candidates.
+     */
+    private int addCandidate(int found, double lat, double lon, double cosLat, double radius, int index){
+        double distance = GeoDistance.meters(lat, lon, cosLat, this.lats[index], this.lons[index]);
+        if(radius > 0 && distance > radius){
+            return found;
+        }
+        if(found == this.candidates.length){
+            this.candidates = Arrays.copyOf(this.candidates, found * 2);
+        }
+        this.candidates[found] = pack((float) distance, index);
+        return found + 1;
+    }
+
+    /**
+     * Sorts the candidates and returns the distance of the kth nearest one.
+     */
+    private double kthDistance(int found, int maxCount){
+        Arrays.sort(this.candidates, 0, found);
+        return Float.intBitsToFloat((int) (this.candidates[Math.min(found, maxCount) - 1] >>> 32));
+    }
+
+    /**
+     * Packs a distance and an index into a long that sorts by distance.
+     * Bit patterns of positive floats sort the same way as their values.
+     */
+    private static long pack(float distance, int index){
+        return ((long) Float.floatToIntBits(distance) << 32) | index;
+    }
+
+    private static int cell(double degrees){
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long key(int latCell, int lonCell){
+        return ((long) latCell << 32) | (lonCell & 0xffffffffL);
+    }
+}
@@ -0,0 +1,365 @@
+package com.joaquinlom.wikitude;
+
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Native store of the POIs of a view, keyed by their integer id. Ids may also be sent as
+ * numeric strings; POIs with other ids are skipped.
+ *
+ * React sends full snapshots of the POIs. The store compares them against what the world
+ * already has and only sends the difference to a receiver function in the world:
+ * `receiver({add: [poi...], update: [poi...], remove: [id...]})`.
+ * Each POI is sent as the JSON of the map received from React.
+ *
+ * When culling is enabled, the POIs are kept in a {@link PoiGridIndex} and the world only
+ * gets the POIs within a radius of the current location, and/or the nearest ones.
+ */
+class PoiStore {
+
+    static final String DEFAULT_RECEIVER = "World.applyPoiDelta";
+    // Distance in meters the user has to move before the POIs are culled again
+    static final double DEFAULT_RECULL_DISTANCE = 25;
+
+    private static final String TAG = "PoiStore";
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * A single POI. Instances are immutable, a changed POI is a new instance.
+     */
+    static class Poi {
+        final int id;
+        final double lat;
+        final double lon;
+        final double alt;
+        final String json;
+
+        Poi(int id, double lat, double lon, double alt, String json){
+            this.id = id;
+            this.lat = lat;
+            this.lon = lon;
+            this.alt = alt;
+            this.json = json;
+        }
+
+        boolean sameAs(Poi other){
+            return this == other || this.json.equals(other.json);
+        }
+    }
+
+    private final WikitudeView view;
+    private final WikitudeViewManager viewManager;
+
+    // Latest snapshot received from React
+    private SparseArray<Poi> pois = new SparseArray<>();
+    // POIs the world currently has
+    private SparseArray<Poi> worldPois = new SparseArray<>();
+    private String receiver = DEFAULT_RECEIVER;
+
+    // Culling
+    private PoiGridIndex index;
+    private double cullRadius = 0;
+    private int cullMaxCount = 0;
+    private double recullDistance = DEFAULT_RECULL_DISTANCE;
+    private boolean hasLocation = false;
+    private double lat;
+    private double lon;
+    private double culledLat;
+    private double culledLon;
+
+    PoiStore(WikitudeView view, WikitudeViewManager viewManager){
+        this.view = view;
+        this.viewManager = viewManager;
+    }
+
+    /**
+     * Replaces the POIs with a new snapshot and sends the difference to the world.
+     * POIs are maps with a numeric `id`, `latitude`, `longitude` and optional `altitude`;
+     * all other properties are passed through to the world.
+     * @param snapshot All POIs.
+     * @param options Optional `receiver` (world function).
+     */
+    void setPois(final ReadableArray snapshot, @Nullable final ReadableMap options){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SparseArray<Poi> parsed = parse(snapshot);
+                synchronized (PoiStore.this){
+                    if(options != null && options.hasKey("receiver") && !options.isNull("receiver")){
+                        receiver = options.getString("receiver");
+                    }
+                    pois = parsed;
+                    index = null;
+                    sync();
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all POIs from the store and the world.
+     */
+    void clear(){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PoiStore.this){
+                    pois = new SparseArray<>();
+                    index = null;
+                    sync();
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all POIs from the store and the world, and restores the default receiver and
+     * culling, so a reused view starts like a new one.
+     */
+    void reset(){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PoiStore.this){
+                    pois = new SparseArray<>();
+                    index = null;
+                    cullRadius = 0;
+                    cullMaxCount = 0;
+                    recullDistance = DEFAULT_RECULL_DISTANCE;
+                    hasLocation = false;
+                    // the world keeps running, so its POIs are removed with the current receiver
+                    sync();
+                    receiver = DEFAULT_RECEIVER;
+                }
+            }
+        });
+    }
+
+    /**
+     * Called when a world was (re)loaded. The new world has no POIs, so all of them are sent again.
+     */
+    void onWorldLoaded(){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PoiStore.this){
+                    worldPois = new SparseArray<>();
+                    if(pois.size() > 0){
+                        sync();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Configures culling. With both a radius and a count of 0, the world gets all POIs.
+     * @param radius Maximum distance of POIs in meters, 0 for no limit.
+     * @param maxCount Maximum number of POIs, the nearest ones are kept. 0 for no limit.
+     * @param recullDistance Meters the location has to change before culling again. Below 0 for the default.
+     */
+    void setCulling(final double radius, final int maxCount, final double recullDistance){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PoiStore.this){
+                    cullRadius = Math.max(0, radius);
+                    cullMaxCount = Math.max(0, maxCount);
+                    PoiStore.this.recullDistance = recullDistance >= 0 ? recullDistance : DEFAULT_RECULL_DISTANCE;
+                    sync();
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the location used for culling. The POIs are only culled again once the location
+     * moved further than the recull distance.
+     */
+    void onLocationChanged(final double lat, final double lon){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PoiStore.this){
+                    PoiStore.this.lat = lat;
+                    PoiStore.this.lon = lon;
+                    boolean first = !hasLocation;
+                    hasLocation = true;
+                    if(!isCulling()){
+                        return;
+                    }
+                    if(first || GeoDistance.meters(culledLat, culledLon, lat, lon) >= recullDistance){
+                        sync();
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean isCulling(){
+        return this.cullRadius > 0 || this.cullMaxCount > 0;
+    }
+
+    synchronized int size(){
+        return this.pois.size();
+    }
+
+    /**
+     * @return SparseArray The POIs the world should have.
+     */
+    private SparseArray<Poi> desiredPois(){
+        if(!this.isCulling() || !this.hasLocation){
+            return this.pois;
+        }
+        if(this.index == null){
+            int size = this.pois.size();
+            int[] ids = new int[size];
+            double[] lats = new double[size];
+            double[] lons = new double[size];
+            for(int i = 0; i < size; i++){
+                Poi poi = this.pois.valueAt(i);
+                ids[i] = poi.id;
+                lats[i] = poi.lat;
+                lons[i] = poi.lon;
+            }
+            this.index = new PoiGridIndex(ids, lats, lons);
+        }
+        this.culledLat = this.lat;
+        this.culledLon = this.lon;
+
+        int[] visible = this.index.query(this.lat, this.lon, this.cullRadius, this.cullMaxCount);
+        SparseArray<Poi> desired = new SparseArray<>(visible.length);
+        for(int id : visible){
+            desired.put(id, this.pois.get(id));
+        }
+        return desired;
+    }
+
+    /**
+     * Compares the desired POIs against the POIs of the world and sends the difference.
+     * Must be called while holding the lock of the store.
+     */
+    private void sync(){
+        SparseArray<Poi> desired = this.desiredPois();
+        StringBuilder added = new StringBuilder();
+        StringBuilder updated = new StringBuilder();
+        StringBuilder removed = new StringBuilder();
+        int addCount = 0;
+        int updateCount = 0;
+        int removeCount = 0;
+
+        // both arrays are sorted by id, so they can be merged in a single pass
+        int i = 0;
+        int j = 0;
+        int desiredSize = desired.size();
+        int worldSize = this.worldPois.size();
+        SparseArray<Poi> next = new SparseArray<>(desiredSize);
+        while(i < desiredSize || j < worldSize){
+            int desiredId = i < desiredSize ? desired.keyAt(i) : Integer.MAX_VALUE;
+            int worldId = j < worldSize ? this.worldPois.keyAt(j) : Integer.MAX_VALUE;
+            if(i < desiredSize && (j >= worldSize || desiredId < worldId)){
+                Poi poi = desired.valueAt(i++);
+                append(added, poi.json);
+                addCount++;
+                next.append(poi.id, poi);
+            }else if(j < worldSize && (i >= desiredSize || worldId < desiredId)){
+                append(removed, String.valueOf(worldId));
+                removeCount++;
+                j++;
+            }else{
+                Poi poi = desired.valueAt(i++);
+                if(!poi.sameAs(this.worldPois.valueAt(j++))){
+                    append(updated, poi.json);
+                    updateCount++;
+                }
+                next.append(poi.id, poi);
+            }
+        }
+
+        this.worldPois = next;
+
+        if(addCount + updateCount + removeCount > 0){
+            // worldPois is already updated, so the delta must not be dropped
+            this.view.queueRequiredJavascript(this.receiver
+                    + "({add:[" + added + "],update:[" + updated + "],remove:[" + removed + "]})");
+        }
+
+        WritableMap event = Arguments.createMap();
+        event.putInt("added", addCount);
+        event.putInt("updated", updateCount);
+        event.putInt("removed", removeCount);
+        event.putInt("total", this.pois.size());
+        event.putInt("inWorld", this.worldPois.size());
+        this.viewManager.emitEvent(this.view, "onPoiSync", event);
+    }
+
+    private static void append(StringBuilder builder, String value){
+        if(builder.length() > 0){
+            builder.append(',');
+        }
+        builder.append(value);
+    }
+
+    private static SparseArray<Poi> parse(ReadableArray snapshot){
+        int size = snapshot.size();
+        SparseArray<Poi> parsed = new SparseArray<>(size);
+        for(int i = 0; i < size; i++){
+            ReadableMap map = snapshot.getMap(i);
+            if(map == null || !map.hasKey("id")){
+                continue;
+            }
+            try{
+                Integer id = parseId(map);
+                if(id == null){
+                    WikitudeLog.w(TAG, "Skipping POI with an invalid id: %s", map.toHashMap().get("id"));
+                    continue;
+                }
+                Poi poi = new Poi(
+                        id,
+                        map.hasKey("latitude") ? map.getDouble("latitude") : 0,
+                        map.hasKey("longitude") ? map.getDouble("longitude") : 0,
+                        map.hasKey("altitude") ? map.getDouble("altitude") : 0,
+                        JsonConvert.reactToJSONString(map));
+                parsed.put(poi.id, poi);
+            }catch(IOException | RuntimeException e){
+                // a malformed POI must not take down the store's thread
+                WikitudeLog.e(TAG, "Skipping POI that can't be read: %s", e);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Reads the id of a POI. Ids are integers, sent as numbers or numeric strings.
+     * @return Integer The id, or null if it isn't an integer.
+     */
+    @Nullable
+    private static Integer parseId(ReadableMap map){
+        switch (map.getType("id")){
+            case Number:
+                double number = map.getDouble("id");
+                if(number != Math.rint(number) || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE){
+                    return null;
+                }
+                return (int) number;
+            case String:
+                try{
+                    return Integer.parseInt(map.getString("id").trim());
+                }catch(NumberFormatException e){
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+}
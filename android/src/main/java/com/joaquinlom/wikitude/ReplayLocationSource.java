@@ -0,0 +1,97 @@
+package com.joaquinlom.wikitude;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Location source that replays a recorded track, for testing without GPS.
+ * Each fix has a `time` in milliseconds relative to the start of the track.
+ */
+class ReplayLocationSource implements LocationSource {
+
+    private final double[] lats;
+    private final double[] lons;
+    private final double[] alts;
+    private final float[] accuracies;
+    private final long[] times;
+    private final boolean loop;
+    private final double speed;
+
+    private HandlerThread thread;
+    private Handler handler;
+
+    /**
+     * @param fixes Maps with `latitude`, `longitude` and optional `altitude`, `accuracy` and `time`.
+     *              Fixes without a time are one second apart.
+     * @param loop True to restart the track when it ends.
+     * @param speed Playback speed, 2 replays the track twice as fast.
+     */
+    ReplayLocationSource(ReadableArray fixes, boolean loop, double speed){
+        int size = fixes.size();
+        this.lats = new double[size];
+        this.lons = new double[size];
+        this.alts = new double[size];
+        this.accuracies = new float[size];
+        this.times = new long[size];
+        for(int i = 0; i < size; i++){
+            ReadableMap fix = fixes.getMap(i);
+            this.lats[i] = fix.getDouble("latitude");
+            this.lons[i] = fix.getDouble("longitude");
+            this.alts[i] = fix.hasKey("altitude") && !fix.isNull("altitude") ? fix.getDouble("altitude") : Double.NaN;
+            this.accuracies[i] = fix.hasKey("accuracy") && !fix.isNull("accuracy") ? (float) fix.getDouble("accuracy") : Float.NaN;
+            this.times[i] = fix.hasKey("time") && !fix.isNull("time") ? (long) fix.getDouble("time") : i * 1000L;
+        }
+        this.loop = loop;
+        this.speed = speed > 0 ? speed : 1;
+    }
+
+    @Override
+    public boolean start(final Listener listener) {
+        if(this.times.length == 0){
+            return false;
+        }
+        this.stop();
+        this.thread = new HandlerThread("WikitudeLocationReplay", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        // the runnable keeps its own handler, stop() clears the field from another thread
+        final Handler handler = new Handler(this.thread.getLooper());
+        this.handler = handler;
+        handler.post(new Runnable() {
+            final long start = SystemClock.uptimeMillis();
+            long offset = 0;
+            int index = 0;
+
+            @Override
+            public void run() {
+                listener.onLocation(lats[index], lons[index], alts[index], accuracies[index]);
+                index++;
+                if(index == times.length){
+                    if(!loop){
+                        return;
+                    }
+                    // the next round starts one second after the last fix
+                    offset += times[times.length - 1] - times[0] + 1000;
+                    index = 0;
+                }
+                long delay = (long) ((offset + times[index] - times[0]) / speed);
+                handler.postAtTime(this, start + delay);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if(this.thread != null){
+            this.handler.removeCallbacksAndMessages(null);
+            this.thread.quitSafely();
+            this.thread = null;
+            this.handler = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.joaquinlom.wikitude;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Base64;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Encodes screen captures on a background thread, so compressing and Base64 encoding
+ * large bitmaps doesn't block the main thread.
+ * Output buffers are pooled and reused between captures.
+ */
+class ScreenCaptureEncoder {
+
+    interface Callback {
+        void onEncoded(WritableMap result);
+        void onError(String message);
+    }
+
+    private static final String TAG = "ScreenCaptureEncoder";
+
+    // Captures are usually encoded one at a time, a small pool is enough
+    private static final int MAX_POOLED_BUFFERS = 2;
+    // Buffers that grew larger than this are not kept around
+    private static final int MAX_POOLED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "WikitudeCaptureEncoder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final ArrayDeque<ReusableOutputStream> bufferPool = new ArrayDeque<>();
+
+    /**
+     * ByteArrayOutputStream that exposes its buffer, so the encoded image doesn't have to be copied.
+     */
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(){
+            super(512 * 1024);
+        }
+        byte[] buffer(){
+            return this.buf;
+        }
+    }
+
+    private ScreenCaptureEncoder(){}
+
+    /**
+     * Encodes a captured bitmap in the background and reports the result to the callback.
+     * The callback is invoked on the encoder thread.
+     * @param image Captured bitmap. Is recycled once it is encoded, callers must not use it afterwards.
+     * @param options Format, quality, size and output of the capture.
+     * @param cacheDir Cache directory of the app, used when writing files.
+     * @param callback Receives the event payload.
+     */
+    static void encode(final Bitmap image, final CaptureOptions options, final File cacheDir, final Callback callback){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                Bitmap scaled = null;
+                WritableMap result = null;
+                try{
+                    scaled = scale(image, options);
+                    result = Arguments.createMap();
+                    result.putString("format", options.format);
+                    result.putInt("width", scaled.getWidth());
+                    result.putInt("height", scaled.getHeight());
+
+                    if(options.writesFile()){
+                        CaptureFileRing ring = CaptureFileRing.get(cacheDir);
+                        ring.configure(options.ringSize, options.ringBytes);
+                        File file = ring.write(scaled, options);
+                        result.putString("uri", Uri.fromFile(file).toString());
+                    }else{
+                        String base64 = encodeBase64(scaled, options);
+                        BridgeMetrics.count(BridgeMetrics.CAPTURE_BYTES, base64.length());
+                        result.putString("image", base64);
+                    }
+                    BridgeMetrics.record(BridgeMetrics.ENCODE, start);
+                }catch(IOException | RuntimeException | OutOfMemoryError e){
+                    // every capture has to settle, or its promise and stream slot are never released
+                    WikitudeLog.e(TAG, "Error encoding screen capture: %s", e);
+                    callback.onError(e.toString());
+                    return;
+                }finally {
+                    // frees the pixels right away instead of leaving full screen bitmaps to the GC
+                    if(scaled != null && scaled != image){
+                        scaled.recycle();
+                    }
+                    if(image != null){
+                        image.recycle();
+                    }
+                }
+                callback.onEncoded(result);
+            }
+        });
+    }
+
+    /**
+     * Deletes the capture files after the captures that are being encoded, Ex. when a view is
+     * parked for another session.
+     * @param cacheDir Cache directory of the app.
+     */
+    static void clearFiles(final File cacheDir){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CaptureFileRing.get(cacheDir).clear();
+            }
+        });
+    }
+
+    /**
+     * Scales the image down to fit within the requested size, keeping the aspect ratio.
+     */
+    private static Bitmap scale(Bitmap image, CaptureOptions options){
+        int width = image.getWidth();
+        int height = image.getHeight();
+        float scale = 1f;
+        if(options.width > 0 && options.width < width){
+            scale = (float) options.width / width;
+        }
+        if(options.height > 0 && options.height < height * scale){
+            scale = (float) options.height / height;
+        }
+        if(scale >= 1f){
+            return image;
+        }
+        int targetWidth = Math.max(1, Math.round(width * scale));
+        int targetHeight = Math.max(1, Math.round(height * scale));
+        return Bitmap.createScaledBitmap(image, targetWidth, targetHeight, true);
+    }
+
+    private static String encodeBase64(Bitmap image, CaptureOptions options) throws IOException {
+        ReusableOutputStream stream = obtainBuffer();
+        try{
+            if(!image.compress(options.compressFormat, options.quality, stream)){
+                throw new IOException("Bitmap could not be compressed to " + options.format);
+            }
+            return Base64.encodeToString(stream.buffer(), 0, stream.size(), Base64.NO_WRAP);
+        }finally {
+            releaseBuffer(stream);
+        }
+    }
+
+    private static ReusableOutputStream obtainBuffer(){
+        synchronized (bufferPool){
+            ReusableOutputStream stream = bufferPool.poll();
+            if(stream != null){
+                return stream;
+            }
+        }
+        return new ReusableOutputStream();
+    }
+
+    private static void releaseBuffer(ReusableOutputStream stream){
+        if(stream.buffer().length > MAX_POOLED_BUFFER_SIZE){
+            return;
+        }
+        stream.reset();
+        synchronized (bufferPool){
+            if(bufferPool.size() < MAX_POOLED_BUFFERS){
+                bufferPool.push(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.joaquinlom.wikitude;
+
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Logging for the module.
+ *
+ * Messages below the configured level are counted and dropped without being built: the message
+ * is a format string, and its arguments are only formatted when the message is logged. Overloads
+ * for up to three arguments avoid allocating a varargs array. String arguments are capped at a
+ * payload size, so a Base64 image or a large JSON message never ends up in logcat whole.
+ *
+ * Release builds log warnings and errors only, debug builds log from debug up.
+ */
+final class WikitudeLog {
+
+    static final int DEFAULT_MAX_PAYLOAD = 256;
+
+    private static volatile int level = BuildConfig.DEBUG ? Log.DEBUG : Log.WARN;
+    private static volatile int maxPayload = DEFAULT_MAX_PAYLOAD;
+
+    // Suppressed messages by priority, Log.VERBOSE to Log.ERROR
+    private static final AtomicLongArray suppressed = new AtomicLongArray(Log.ASSERT + 1);
+    private static final AtomicLongArray logged = new AtomicLongArray(Log.ASSERT + 1);
+    private static final AtomicLongArray truncated = new AtomicLongArray(1);
+
+    private WikitudeLog(){}
+
+    /**
+     * Configures logging.
+     * @param levelName 'verbose', 'debug', 'info', 'warn', 'error' or 'none'. Null keeps the current level.
+     * @param payload Maximum length of string arguments, values below 1 keep the current value.
+     */
+    static void configure(String levelName, int payload){
+        if(levelName != null){
+            level = parseLevel(levelName);
+        }
+        if(payload > 0){
+            maxPayload = payload;
+        }
+    }
+
+    static boolean isLoggable(int priority){
+        return priority >= level;
+    }
+
+    static void v(String tag, String message){
+        log(Log.VERBOSE, tag, message, null);
+    }
+
+    static void v(String tag, String format, Object a){
+        if(check(Log.VERBOSE)){
+            print(Log.VERBOSE, tag, format, new Object[]{a});
+        }
+    }
+
+    static void v(String tag, String format, Object a, Object b){
+        if(check(Log.VERBOSE)){
+            print(Log.VERBOSE, tag, format, new Object[]{a, b});
+        }
+    }
+
+    static void v(String tag, String format, Object a, Object b, Object c){
+        if(check(Log.VERBOSE)){
+            print(Log.VERBOSE, tag, format, new Object[]{a, b, c});
+        }
+    }
+
+    static void d(String tag, String message){
+        log(Log.DEBUG, tag, message, null);
+    }
+
+    static void d(String tag, String format, Object a){
+        if(check(Log.DEBUG)){
+            print(Log.DEBUG, tag, format, new Object[]{a});
+        }
+    }
+
+    static void d(String tag, String format, Object a, Object b){
+        if(check(Log.DEBUG)){
+            print(Log.DEBUG, tag, format, new Object[]{a, b});
+        }
+    }
+
+    static void d(String tag, String format, Object a, Object b, Object c){
+        if(check(Log.DEBUG)){
+            print(Log.DEBUG, tag, format, new Object[]{a, b, c});
+        }
+    }
+
+    static void i(String tag, String message){
+        log(Log.INFO, tag, message, null);
+    }
+
+    static void i(String tag, String format, Object a){
+        if(check(Log.INFO)){
+            print(Log.INFO, tag, format, new Object[]{a});
+        }
+    }
+
+    static void w(String tag, String message){
+        log(Log.WARN, tag, message, null);
+    }
+
+    static void w(String tag, String format, Object a){
+        if(check(Log.WARN)){
+            print(Log.WARN, tag, format, new Object[]{a});
+        }
+    }
+
+    static void w(String tag, String format, Object a, Object b){
+        if(check(Log.WARN)){
+            print(Log.WARN, tag, format, new Object[]{a, b});
+        }
+    }
+
+    static void e(String tag, String message){
+        log(Log.ERROR, tag, message, null);
+    }
+
+    static void e(String tag, String format, Object a){
+        if(check(Log.ERROR)){
+            print(Log.ERROR, tag, format, new Object[]{a});
+        }
+    }
+
+    static void e(String tag, String format, Object a, Object b){
+        if(check(Log.ERROR)){
+            print(Log.ERROR, tag, format, new Object[]{a, b});
+        }
+    }
+
+    static void e(String tag, String format, Object a, Object b, Object c){
+        if(check(Log.ERROR)){
+            print(Log.ERROR, tag, format, new Object[]{a, b, c});
+        }
+    }
+
+    /**
+     * @return WritableMap The level, and how many messages were logged and suppressed per level.
+     */
+    static WritableMap getStats(){
+        WritableMap stats = Arguments.createMap();
+        stats.putString("level", levelName(level));
+        stats.putInt("maxPayload", maxPayload);
+        WritableMap loggedMap = Arguments.createMap();
+        WritableMap suppressedMap = Arguments.createMap();
+        for(int priority = Log.VERBOSE; priority <= Log.ERROR; priority++){
+            loggedMap.putDouble(levelName(priority), logged.get(priority));
+            suppressedMap.putDouble(levelName(priority), suppressed.get(priority));
+        }
+        stats.putMap("logged", loggedMap);
+        stats.putMap("suppressed", suppressedMap);
+        stats.putDouble("truncated", truncated.get(0));
+        return stats;
+    }
+
+    private static void log(int priority, String tag, String message, Object[] args){
+        if(check(priority)){
+            print(priority, tag, message, args);
+        }
+    }
+
+    /**
+     * Counts the message as logged or suppressed.
+     * @return boolean True if the message should be logged.
+     */
+    private static boolean check(int priority){
+        if(priority < level){
+            suppressed.incrementAndGet(priority);
+            return false;
+        }
+        logged.incrementAndGet(priority);
+        return true;
+    }
+
+    private static void print(int priority, String tag, String format, Object[] args){
+        String message = format;
+        if(args != null){
+            for(int i = 0; i < args.length; i++){
+                if(args[i] instanceof CharSequence){
+                    args[i] = cap((CharSequence) args[i]);
+                }
+            }
+            message = String.format(Locale.US, format, args);
+        }
+        Log.println(priority, tag, message);
+    }
+
+    private static CharSequence cap(CharSequence value){
+        int max = maxPayload;
+        if(value.length() <= max){
+            return value;
+        }
+        truncated.incrementAndGet(0);
+        return value.subSequence(0, max) + "... (" + value.length() + " chars)";
+    }
+
+    private static int parseLevel(String name){
+        switch (name.toLowerCase(Locale.US)){
+            case "verbose":
+                return Log.VERBOSE;
+            case "debug":
+                return Log.DEBUG;
+            case "info":
+                return Log.INFO;
+            case "warn":
+                return Log.WARN;
+            case "error":
+                return Log.ERROR;
+            default:
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    private static String levelName(int priority){
+        switch (priority){
+            case Log.VERBOSE:
+                return "verbose";
+            case Log.DEBUG:
+                return "debug";
+            case Log.INFO:
+                return "info";
+            case Log.WARN:
+                return "warn";
+            case Log.ERROR:
+                return "error";
+            default:
+                return "none";
+        }
+    }
+}
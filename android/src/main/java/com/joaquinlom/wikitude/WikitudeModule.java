@@ -0,0 +1,403 @@
+package com.joaquinlom.wikitude;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Dynamic;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.bridge.WritableMap;
+import com.wikitude.common.devicesupport.Feature;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Native module for Wikitude functions that are not bound to a mounted view, and for direct
+ * calls into mounted views by React tag. Direct calls skip the UI manager command queue and
+ * resolve a promise, unlike the view commands.
+ * See more at: https://reactnative.dev/docs/native-modules-android
+ */
+public class WikitudeModule extends ReactContextBaseJavaModule {
+
+    private static final String TAG = "WikitudeModule";
+
+    private final WikitudeViewManager viewManager;
+
+    public WikitudeModule(ReactApplicationContext context, WikitudeViewManager viewManager){
+        super(context);
+        this.viewManager = viewManager;
+        // known before the first view is created
+        DeviceCapabilityProbe.get(context).start();
+        // reads the world cache index in the background, so it's ready for the first world
+        WorldAssetCache.get(context.getCacheDir());
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "WikitudeModule";
+    }
+
+    /**
+     * Feature names, under the same constant names as on iOS.
+     */
+    @Override
+    public Map<String, Object> getConstants() {
+        Map<String, Object> constants = new HashMap<>();
+        constants.put("Geo", DeviceCapabilityProbe.nameOf(Feature.GEO));
+        constants.put("ImageTracking", DeviceCapabilityProbe.nameOf(Feature.IMAGE_TRACKING));
+        constants.put("InstantTracking", DeviceCapabilityProbe.nameOf(Feature.INSTANT_TRACKING));
+        constants.put("ObjectTracking", DeviceCapabilityProbe.nameOf(Feature.OBJECT_TRACKING));
+        return constants;
+    }
+
+    /**
+     * Creates views ahead of time so the next Wikitude views mount without starting the SDK
+     * and loading the world. Dropped views are kept for reuse, up to `count` views.
+     * @param licenseKey Wikitude license key.
+     * @param url World to load.
+     * @param count Number of views to keep, 0 to empty the pool.
+     * @param options Startup options, Ex. `{features: ['image_tracking'], cameraResolution: 'hd'}`.
+     */
+    @ReactMethod
+    public void prewarm(final String licenseKey, final String url, final int count, @Nullable final ReadableMap options){
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Activity activity = getCurrentActivity();
+                if(activity == null){
+                    WikitudeLog.e(TAG, "Can't prewarm views without an activity.");
+                    return;
+                }
+                viewManager.getViewPool().prewarm(activity, licenseKey, url, count, options);
+            }
+        });
+    }
+
+    /**
+     * Destroys all prewarmed views and stops keeping dropped views.
+     */
+    @ReactMethod
+    public void clearPool(){
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                viewManager.getViewPool().clear();
+            }
+        });
+    }
+
+    /**
+     * Downloads a remote world into the world cache, so views load it from local storage.
+     * Resolves with true if the world was downloaded, false if the cached copy was current.
+     * @param url Remote URL of the world.
+     * @param options Optional `version` (skips the ETag check while it matches) and
+     *                `assets` (paths relative to the world to store with it).
+     * @param promise Promise to resolve once the world is cached.
+     */
+    @ReactMethod
+    public void prefetchWorld(String url, @Nullable ReadableMap options, final Promise promise){
+        String version = null;
+        List<String> assets = new ArrayList<>();
+        if(options != null){
+            if(options.hasKey("version") && !options.isNull("version")){
+                version = options.getString("version");
+            }
+            if(options.hasKey("assets") && !options.isNull("assets")){
+                ReadableArray list = options.getArray("assets");
+                for(int i = 0; i < list.size(); i++){
+                    assets.add(list.getString(i));
+                }
+            }
+        }
+        WorldAssetCache.get(this.getReactApplicationContext().getCacheDir()).prefetch(url, version, assets, new WorldAssetCache.Callback() {
+            @Override
+            public void onCached(boolean fromNetwork) {
+                promise.resolve(fromNetwork);
+            }
+
+            @Override
+            public void onError(String message) {
+                promise.reject("E_PREFETCH", message);
+            }
+        });
+    }
+
+    /**
+     * Sets the maximum total size of the world cache. The least recently used worlds are evicted first.
+     * @param maxBytes Size in bytes.
+     */
+    @ReactMethod
+    public void setWorldCacheSize(double maxBytes){
+        WorldAssetCache.get(this.getReactApplicationContext().getCacheDir()).configure((long) maxBytes);
+    }
+
+    /**
+     * Deletes all worlds in the world cache.
+     */
+    @ReactMethod
+    public void clearWorldCache(){
+        WorldAssetCache.get(this.getReactApplicationContext().getCacheDir()).clear();
+    }
+
+    /**
+     * Downloads or copies a zipped world in the background, verifies it and swaps it in as the
+     * current version of a bundle. Views load it from `bundle://<name>/<path>` URLs.
+     * Resolves with `{version, url, changed}`.
+     * @param name Name of the bundle.
+     * @param source URL of the zip: http(s)://, file:// or an absolute path.
+     * @param sha256 Expected SHA-256 of the zip as hex, null to skip the check.
+     * @param promise Promise to resolve once the bundle is staged.
+     */
+    @ReactMethod
+    public void stageBundle(String name, String source, @Nullable String sha256, final Promise promise){
+        WorldBundleManager.get(this.getReactApplicationContext().getFilesDir()).stage(name, source, sha256, new WorldBundleManager.Callback() {
+            @Override
+            public void onStaged(String version, String url, boolean changed) {
+                WritableMap result = Arguments.createMap();
+                result.putString("version", version);
+                result.putString("url", url);
+                result.putBoolean("changed", changed);
+                promise.resolve(result);
+            }
+
+            @Override
+            public void onError(String message) {
+                promise.reject("E_STAGE_BUNDLE", message);
+            }
+        });
+    }
+
+    /**
+     * Configures the logging of the module.
+     * @param level 'verbose', 'debug', 'info', 'warn', 'error' or 'none'. Null keeps the current level.
+     * @param maxPayload Maximum length of logged strings, 0 keeps the current value.
+     */
+    @ReactMethod
+    public void setLogLevel(@Nullable String level, int maxPayload){
+        WikitudeLog.configure(level, maxPayload);
+    }
+
+    /**
+     * Resolves with the log level and how many messages were logged, suppressed and truncated.
+     */
+    @ReactMethod
+    public void getLogStats(Promise promise){
+        promise.resolve(WikitudeLog.getStats());
+    }
+
+    /**
+     * Resolves with the latency histograms and counters of the bridge, see BridgeMetrics.
+     */
+    @ReactMethod
+    public void getMetrics(Promise promise){
+        promise.resolve(this.viewManager.getMetrics());
+    }
+
+    @ReactMethod
+    public void resetMetrics(){
+        BridgeMetrics.reset();
+    }
+
+    /**
+     * Synchronous {@link #getMetrics}, returns the snapshot directly to the JS thread.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getMetricsSync(){
+        return this.viewManager.getMetrics();
+    }
+
+    /**
+     * Queues Javascript in the world of a view, like the callJavascript command.
+     * Resolves with the number of pending snippets once queued, or with -1 if the view isn't
+     * registered yet, Ex. right after it was mounted; the caller then sends the command.
+     * @param reactTag React tag of the view.
+     * @param js Javascript to execute.
+     * @param key Optional key; replaces a pending snippet with the same key.
+     */
+    @ReactMethod
+    public void callJavascript(int reactTag, String js, @Nullable String key, Promise promise){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        if(view == null){
+            promise.resolve(-1);
+            return;
+        }
+        view.queueJavascript(js, key);
+        promise.resolve(view.getJavascriptQueue().getDepth());
+    }
+
+    /**
+     * Synchronous {@link #callJavascript}: queues the Javascript on the JS thread, without
+     * going through the module queue. Queueing only takes the lock of the view's queue.
+     * @return int Number of pending snippets, -1 if there is no view with the tag.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public int callJavascriptSync(int reactTag, String js, @Nullable String key){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        if(view == null){
+            return -1;
+        }
+        view.queueJavascript(js, key);
+        return view.getJavascriptQueue().getDepth();
+    }
+
+    /**
+     * Queues a function call in the world of a view, like the callJSFunction command.
+     * The arguments are serialized on the module thread. Resolves like {@link #callJavascript}.
+     * @param reactTag React tag of the view.
+     * @param function Name of the function. Ex. 'World.loadPois'
+     * @param arguments Arguments of the call.
+     * @param key Optional key; replaces a pending snippet with the same key.
+     */
+    @ReactMethod
+    public void callJavascriptFunction(int reactTag, String function, @Nullable ReadableArray arguments, @Nullable String key, Promise promise){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        if(view == null){
+            promise.resolve(-1);
+            return;
+        }
+        try{
+            view.queueJavascript(WikitudeViewManager.buildFunctionCall(function, arguments), key);
+            promise.resolve(view.getJavascriptQueue().getDepth());
+        }catch(IOException e){
+            promise.reject("E_SERIALIZE", e.toString());
+        }
+    }
+
+    /**
+     * Submits a location to the location pipeline of a view, like the injectLocation command.
+     * Resolves with false if the view isn't registered yet; the caller then sends the command.
+     * @param reactTag React tag of the view.
+     * @param altitude Altitude in meters, null if unknown.
+     * @param accuracy Accuracy in meters, null for the default.
+     */
+    @ReactMethod
+    public void injectLocation(int reactTag, double latitude, double longitude, Dynamic altitude, Dynamic accuracy, Promise promise){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        if(view == null){
+            promise.resolve(false);
+            return;
+        }
+        view.submitLocation(latitude, longitude,
+                altitude == null || altitude.isNull() ? Double.NaN : altitude.asDouble(),
+                accuracy == null || accuracy.isNull() ? Float.NaN : (float) accuracy.asDouble());
+        promise.resolve(true);
+    }
+
+    /**
+     * Synchronous {@link #injectLocation}. The location is filtered on the pipeline's thread.
+     * @return boolean False if there is no view with the tag.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public boolean injectLocationSync(int reactTag, double latitude, double longitude, Dynamic altitude, Dynamic accuracy){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        if(view == null){
+            return false;
+        }
+        view.submitLocation(latitude, longitude,
+                altitude == null || altitude.isNull() ? Double.NaN : altitude.asDouble(),
+                accuracy == null || accuracy.isNull() ? Float.NaN : (float) accuracy.asDouble());
+        return true;
+    }
+
+    /**
+     * Captures the screen of a view and resolves with the encoded image, the same payload as
+     * the `onScreenCaptured` event. No event is sent.
+     * @param reactTag React tag of the view.
+     * @param captureWebView True to capture the camera and the world, false for only the camera.
+     * @param options Optional capture options.
+     */
+    @ReactMethod
+    public void captureScreen(final int reactTag, final boolean captureWebView, @Nullable ReadableMap options, final Promise promise){
+        final CaptureOptions captureOptions = CaptureOptions.fromReadableMap(options);
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                WikitudeView view = viewManager.getView(reactTag);
+                if(view == null){
+                    promise.reject("E_NO_VIEW", "No Wikitude view with tag " + reactTag);
+                    return;
+                }
+                view.captureScreen(captureWebView, captureOptions, new ScreenCaptureEncoder.Callback() {
+                    @Override
+                    public void onEncoded(WritableMap result) {
+                        promise.resolve(result);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        promise.reject("E_CAPTURE", message);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Resolves with the Javascript queue statistics of a view, the same payload as `onQueueStats`,
+     * or with null if the view isn't registered yet; the caller then sends the command.
+     * @param reactTag React tag of the view.
+     */
+    @ReactMethod
+    public void getQueueStats(int reactTag, Promise promise){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        if(view == null){
+            promise.resolve(null);
+            return;
+        }
+        promise.resolve(this.viewManager.getQueueStats(view));
+    }
+
+    /**
+     * Synchronous {@link #getQueueStats}.
+     * @return WritableMap The stats, null if there is no view with the tag.
+     */
+    @Nullable
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getQueueStatsSync(int reactTag){
+        WikitudeView view = this.viewManager.getView(reactTag);
+        return view == null ? null : this.viewManager.getQueueStats(view);
+    }
+
+    /**
+     * Resolves with `{supported, missing, message}` for a list of features, from the stored
+     * probe result. Ex. `['geo', 'image_tracking']`
+     */
+    @ReactMethod
+    public void isDeviceSupportingFeatures(final ReadableArray features, final Promise promise){
+        final DeviceCapabilityProbe probe = DeviceCapabilityProbe.get(this.getReactApplicationContext());
+        probe.query(new Runnable() {
+            @Override
+            public void run() {
+                promise.resolve(probe.isSupporting(features));
+            }
+        });
+    }
+
+    /**
+     * Resolves with the support of every feature, the camera and location permissions and the SDK version.
+     */
+    @ReactMethod
+    public void getDeviceCapabilities(final Promise promise){
+        final DeviceCapabilityProbe probe = DeviceCapabilityProbe.get(this.getReactApplicationContext());
+        probe.query(new Runnable() {
+            @Override
+            public void run() {
+                promise.resolve(probe.getCapabilities());
+            }
+        });
+    }
+}
@@ -1,5 +1,4 @@
 package com.joaquinlom.wikitude;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 
@@ -30,7 +29,7 @@ public class WikitudePackage implements ReactPackage {
   @NonNull
   @Override
   public List<NativeModule> createNativeModules(@NonNull ReactApplicationContext reactContext) {
-    return Collections.emptyList();
+    return Arrays.<NativeModule>asList(new WikitudeModule(reactContext, singleViewManager(reactContext)));
   }
 
   /**
@@ -51,13 +50,13 @@ public class WikitudePackage implements ReactPackage {
    * @return WikitudeViewManager A new view manager.
    */
   public WikitudeViewManager singleViewManager(ReactApplicationContext context) {
-    Log.d("WikitudePackage","Requested creation of new WikitudeViewManager.");
+    WikitudeLog.d("WikitudePackage", "Requested creation of new WikitudeViewManager.");
 
     if(this.wikitudeViewManager == null){
-      Log.d("WikitudePackage","WikitudeViewManager is null, creating new instance.");
+      WikitudeLog.d("WikitudePackage", "WikitudeViewManager is null, creating new instance.");
       this.wikitudeViewManager = new WikitudeViewManager(context);
     }else{
-      Log.d("WikitudePackage","Returning the same WikitudeViewManager.");
+      WikitudeLog.d("WikitudePackage", "Returning the same WikitudeViewManager.");
     }
     return this.wikitudeViewManager;
   }
@@ -2,38 +2,129 @@ package com.joaquinlom.wikitude;
 
 import android.app.Activity;
 import android.content.Context;
-import android.util.Log;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LifecycleRegistry;
 
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableMap;
+import com.wikitude.architect.ArchitectJavaScriptInterfaceListener;
 import com.wikitude.architect.ArchitectStartupConfiguration;
 import com.wikitude.architect.ArchitectView;
+import com.wikitude.common.camera.CameraSettings;
+import com.wikitude.common.devicesupport.Feature;
+
+import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.URL;
+import java.util.EnumSet;
+import java.util.Locale;
 
 /**
  * Wikitude view that is shown in React.
- * Implements lifecycle methods.
+ * Implements lifecycle methods, and forwards the events of its world to the view manager along with itself.
  * See more at: https://developer.android.com/topic/libraries/architecture/lifecycle#lc
+ *
+ * The world is loaded lazily: only once the view is created (has a license key) and has a URL,
+ * and only once per URL. Requests to resume before the view is created are applied when it is.
+ *
+ * The SDK is started once the initial props are set, so the startup options (features and
+ * camera settings) are part of the startup configuration. They can't change afterwards.
  */
-class WikitudeView  extends ArchitectView implements LifecycleOwner {
+class WikitudeView  extends ArchitectView
+        implements LifecycleOwner, ArchitectJavaScriptInterfaceListener, ArchitectView.ArchitectWorldLoadedListener {
 
     Context ctx;
     Activity activity;
     String licenseKey = "";
     String url = "";
-    String javascript = "";
-    Double lat = 0.0;
-    Double lng = 0.0;
-    String TAG = "WikitudeView";
+    static final String TAG = "WikitudeView";
+
+    // Bits of the `feature` prop, the values of the iOS WTFeature constants
+    static final int FEATURE_IMAGE_TRACKING = 1;
+    static final int FEATURE_INSTANT_TRACKING = 1 << 2;
+    static final int FEATURE_OBJECT_TRACKING = 1 << 3;
+    static final int FEATURE_GEO = 1 << 6;
     WikitudeViewManager viewManager;
 
-    private LifecycleRegistry lifecycleRegistry;
+    /**
+     * State of the world of the view.
+     */
+    enum WorldState { NONE, LOADING, LOADED, FAILED }
+
+    private final LifecycleRegistry lifecycleRegistry = new LifecycleRegistry(this);
+    private WorldState worldState = WorldState.NONE;
+    // URL of the world that is loading or loaded, empty if none
+    private String worldUrl = "";
+    // Cached copy of the world that is loading or loaded, pinned in the world cache
+    private String cachedWorldUrl;
+    // onResume was called before the view was created
+    private boolean resumeRequested = false;
+    // the view was paused because the host activity was paused
+    private boolean pausedByHost = false;
     private ArchitectStartupConfiguration startUpConfig = new ArchitectStartupConfiguration();
+    // Startup options, null for the SDK default
+    private EnumSet<Feature> features;
+    // Features of the `feature` bit mask, used if `features` isn't set
+    private EnumSet<Feature> featureMask;
+    private CameraSettings.CameraResolution cameraResolution;
+    private CameraSettings.CameraPosition cameraPosition;
+    private CameraSettings.CameraFocusMode focusMode;
+    private Boolean camera2Enabled;
+    // onCreate threw, the view is not started again
+    private boolean startFailed = false;
+    private final MainThreadScheduler scheduler = new MainThreadScheduler(this);
+    private final JavascriptQueue jsQueue = new JavascriptQueue(this, this.scheduler);
+    private CaptureStream captureStream;
+    private BulkDataChannel bulkDataChannel;
+    private PoiStore poiStore;
+    private LocationPipeline locationPipeline;
+    private EventBatcher eventBatcher;
+    private FrameTelemetry telemetry;
+    // System.nanoTime() when the loading world was requested
+    private long worldLoadStart = 0;
+
+    // Periodic onMetrics events
+    private final Handler metricsHandler = new Handler(Looper.getMainLooper());
+    private long metricsIntervalMs = 0;
+    private final Runnable metricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            viewManager.emitEvent(WikitudeView.this, "onMetrics", viewManager.getMetrics());
+            if(metricsIntervalMs > 0){
+                metricsHandler.postDelayed(this, metricsIntervalMs);
+            }
+        }
+    };
+
+    // Native location updates
+    static final long DEFAULT_LOCATION_REPORT_INTERVAL = 1000;
+    private LocationSource locationSource;
+    private boolean locationSourceStarted = false;
+    private long locationReportInterval = DEFAULT_LOCATION_REPORT_INTERVAL;
+    private long lastLocationReport = 0;
+    private int locationsReceived = 0;
+    private int locationsApplied = 0;
+    private final LocationSource.Listener locationListener = new LocationSource.Listener() {
+        @Override
+        public void onLocation(double lat, double lon, double alt, float accuracy) {
+            synchronized (WikitudeView.this){
+                locationsReceived++;
+            }
+            submitLocation(lat, lon, alt, accuracy);
+        }
+    };
 
     public WikitudeView(Activity activity){
         super(activity);
@@ -43,6 +134,19 @@ class WikitudeView  extends ArchitectView implements LifecycleOwner {
         this.activity = activity;
         this.licenseKey = licenseKey;
         this.viewManager = manager;
+        this.captureStream = new CaptureStream(this, manager);
+        this.bulkDataChannel = new BulkDataChannel(this, manager);
+        this.poiStore = new PoiStore(this, manager);
+        this.locationPipeline = new LocationPipeline(this.scheduler, new LocationPipeline.Target() {
+            @Override
+            public void injectLocation(double lat, double lon, double alt, float accuracy) {
+                WikitudeView.this.injectLocation(lat, lon, alt, accuracy);
+            }
+        });
+        this.eventBatcher = new EventBatcher(this, manager);
+        this.telemetry = new FrameTelemetry(this, manager);
+        // add JS listener so we can send the view JS code if needed
+        this.addArchitectJavaScriptInterfaceListener(this);
     }
 
     @NonNull
@@ -61,29 +165,66 @@ class WikitudeView  extends ArchitectView implements LifecycleOwner {
     @Override
     public void onCreate(ArchitectStartupConfiguration config){
         super.onCreate(config);
-        this.lifecycleRegistry = new LifecycleRegistry(this);
         this.lifecycleRegistry.markState(Lifecycle.State.CREATED);
     }
 
+    boolean isCreated(){
+        return this.lifecycleRegistry.getCurrentState().isAtLeast(Lifecycle.State.CREATED);
+    }
+
+    boolean isResumed(){
+        return this.lifecycleRegistry.getCurrentState() == Lifecycle.State.RESUMED;
+    }
+
+    WorldState getWorldState(){
+        return this.worldState;
+    }
+
     /**
      * Life-cycle method to called in the corresponding method of the containing activity.
-     * Sets this views state to RESUMED.
+     * Sets this views state to RESUMED. Does nothing if the view is already resumed, and is
+     * deferred until the view is created if it isn't yet.
      * @throws ArchitectView.CamNotAccessibleException - when camera permissions are not granted or no camera could be found or accessed.
      */
     @Override
     public void onResume(){
+        if(!this.isCreated()){
+            this.resumeRequested = true;
+            return;
+        }
+        if(this.isResumed()){
+            return;
+        }
+        this.pausedByHost = false;
         super.onResume();
         this.lifecycleRegistry.markState(Lifecycle.State.RESUMED);
+        if(this.locationSource != null && !this.locationSourceStarted){
+            this.locationSourceStarted = this.locationSource.start(this.locationListener);
+        }
+        if(this.telemetry != null){
+            this.telemetry.start();
+        }
 
     }
 
     /**
      * Life-cycle method that should be called in the corresponding method of the activity.
-     * Sets this views state to STARTED.
-     * @throws IllegalStateException If method is called without preceding life-cycle-method calls
+     * Sets this views state to STARTED. Does nothing if the view is not resumed.
      */
     @Override
     public void onPause(){
+        this.resumeRequested = false;
+        if(!this.isResumed()){
+            return;
+        }
+        // no location updates while the view is paused
+        if(this.locationSource != null && this.locationSourceStarted){
+            this.locationSource.stop();
+            this.locationSourceStarted = false;
+        }
+        if(this.telemetry != null){
+            this.telemetry.stop();
+        }
         super.onPause();
         this.lifecycleRegistry.markState(Lifecycle.State.STARTED);
     }
@@ -94,14 +235,57 @@ class WikitudeView  extends ArchitectView implements LifecycleOwner {
      */
     @Override
     public void onDestroy(){
-        //clear cache before destroying
-        try{
-            this.clearCache();
-        }catch (java.lang.Exception e){
-            Log.e(TAG, "Error clearing cache on destroy: " + e);
+        this.scheduler.clear();
+        this.jsQueue.clear();
+        this.setMetricsInterval(0);
+        if(this.captureStream != null){
+            this.captureStream.stop();
+            this.bulkDataChannel.cancelAll();
+            this.stopLocationSource();
+            this.locationPipeline.stop();
+            this.eventBatcher.clear();
+            this.telemetry.stop();
+        }
+        if(!this.isCreated()){
+            return;
         }
+        // the SDK cache is kept, so the world isn't downloaded again the next time
         super.onDestroy();
         this.lifecycleRegistry.markState(Lifecycle.State.DESTROYED);
+        this.worldState = WorldState.NONE;
+        this.worldUrl = "";
+        this.releaseCachedWorld();
+    }
+
+    /**
+     * Unpins the cached world the view loaded, so the world cache can replace or evict it.
+     */
+    private void releaseCachedWorld(){
+        if(this.cachedWorldUrl != null){
+            WorldAssetCache.get(this.getContext().getCacheDir()).release(this.cachedWorldUrl);
+            this.cachedWorldUrl = null;
+        }
+    }
+
+    /**
+     * Pauses the view when the host activity is paused.
+     */
+    void onHostPause(){
+        if(this.isResumed()){
+            this.onPause();
+            this.pausedByHost = true;
+        }
+    }
+
+    /**
+     * Resumes the view when the host activity is resumed, if it was paused by the host.
+     * Views paused from React stay paused.
+     */
+    void onHostResume(){
+        if(this.pausedByHost){
+            this.pausedByHost = false;
+            this.onResume();
+        }
     }
 
     /**
@@ -113,50 +297,466 @@ class WikitudeView  extends ArchitectView implements LifecycleOwner {
         super.clearCache();
     }
 
+    /**
+     * Sets the URL of the world. URLs with a scheme (http(s)://, file://, bundle://) are used as is,
+     * anything else is the name of a local world in the assets, without `.html`.
+     */
     public void setUrl(String newUrl){
+        String resolved;
         if(isUrl(newUrl)){
-            Log.d(TAG,"setURL: Received web URL");
-            this.url = newUrl;
+            WikitudeLog.d(TAG, "setURL: Received URL");
+            resolved = newUrl;
         }else{
-            Log.d(TAG,"setURL: Received local URL");
-            this.url = newUrl+".html";
+            WikitudeLog.d(TAG, "setURL: Received local URL");
+            resolved = newUrl+".html";
         }
+        this.url = resolved;
         this.loadWorld();
     }
     public void setLicenseKey(String license){
+        if(this.isCreated()){
+            if(!license.equals(this.licenseKey)){
+                WikitudeLog.w(TAG, "The license key can't be changed after the view was created.");
+            }
+            return;
+        }
+        this.licenseKey = license;
         this.startUpConfig.setLicenseKey( license );
-        createWikitude();
     }
-    public void setLat(Double lat){
-        this.lat = lat;
+
+    /**
+     * Starts the SDK once the view has a license key. Called after the props of a transaction
+     * were set, so all startup options are known.
+     */
+    void startIfReady(){
+        if(!this.isCreated() && !this.startFailed && this.licenseKey != null && !this.licenseKey.isEmpty()){
+            this.createWikitude();
+        }
+    }
+
+    /**
+     * Sets the SDK features to start. Features that are not set are not started, Ex. GPS and
+     * the compass without 'geo'.
+     * @param features Feature names, null for all features.
+     */
+    void setFeatures(@Nullable EnumSet<Feature> features){
+        if(this.checkStartupOption("features", this.features, features)){
+            this.features = features;
+        }
+    }
+    void setFeatureMask(@Nullable EnumSet<Feature> features){
+        if(this.checkStartupOption("feature", this.featureMask, features)){
+            this.featureMask = features;
+        }
+    }
+    void setCameraResolution(@Nullable CameraSettings.CameraResolution resolution){
+        if(this.checkStartupOption("cameraResolution", this.cameraResolution, resolution)){
+            this.cameraResolution = resolution;
+        }
+    }
+    void setCameraPosition(@Nullable CameraSettings.CameraPosition position){
+        if(this.checkStartupOption("cameraPosition", this.cameraPosition, position)){
+            this.cameraPosition = position;
+        }
+    }
+    void setFocusMode(@Nullable CameraSettings.CameraFocusMode focusMode){
+        if(this.checkStartupOption("focusMode", this.focusMode, focusMode)){
+            this.focusMode = focusMode;
+        }
+    }
+    void setCamera2Enabled(@Nullable Boolean enabled){
+        if(this.checkStartupOption("camera2Enabled", this.camera2Enabled, enabled)){
+            this.camera2Enabled = enabled;
+        }
+    }
+
+    /**
+     * Sets the startup options from a map with the keys of the startup props.
+     * @param options `{features, cameraResolution, cameraPosition, focusMode, camera2Enabled}`
+     */
+    void setStartupOptions(ReadableMap options){
+        if(options.hasKey("features")){
+            this.setFeatures(parseFeatures(options.isNull("features") ? null : options.getArray("features")));
+        }
+        if(options.hasKey("cameraResolution")){
+            this.setCameraResolution(parseCameraResolution(options.isNull("cameraResolution") ? null : options.getString("cameraResolution")));
+        }
+        if(options.hasKey("cameraPosition")){
+            this.setCameraPosition(parseCameraPosition(options.isNull("cameraPosition") ? null : options.getString("cameraPosition")));
+        }
+        if(options.hasKey("focusMode")){
+            this.setFocusMode(parseFocusMode(options.isNull("focusMode") ? null : options.getString("focusMode")));
+        }
+        if(options.hasKey("camera2Enabled")){
+            this.setCamera2Enabled(options.isNull("camera2Enabled") ? null : options.getBoolean("camera2Enabled"));
+        }
+    }
+
+    /**
+     * @return boolean True if the option can be set, false if the view was already started.
+     */
+    private boolean checkStartupOption(String name, @Nullable Object current, @Nullable Object value){
+        if(!this.isCreated()){
+            return true;
+        }
+        if(current == null ? value != null : !current.equals(value)){
+            WikitudeLog.w(TAG, "%s can't change after the view was started, remount the view to apply it.", name);
+        }
+        return false;
+    }
+
+    /**
+     * @param names Feature names: 'geo', 'image_tracking', 'instant_tracking', 'object_tracking'.
+     * @return EnumSet Features, null for the SDK default. Unknown names are skipped.
+     */
+    @Nullable
+    static EnumSet<Feature> parseFeatures(@Nullable ReadableArray names){
+        if(names == null){
+            return null;
+        }
+        EnumSet<Feature> features = EnumSet.noneOf(Feature.class);
+        for(int i = 0; i < names.size(); i++){
+            String name = names.getString(i);
+            Feature feature = null;
+            for(Feature candidate : Feature.values()){
+                if(DeviceCapabilityProbe.nameOf(candidate).equals(name)){
+                    feature = candidate;
+                }
+            }
+            if(feature == null){
+                WikitudeLog.w(TAG, "Unknown feature %s", name);
+                continue;
+            }
+            features.add(feature);
+        }
+        return features;
+    }
+
+    /**
+     * @param mask Features as the bit mask of the iOS constants, 0 for the SDK default.
+     */
+    @Nullable
+    static EnumSet<Feature> parseFeatureMask(int mask){
+        if(mask == 0){
+            return null;
+        }
+        EnumSet<Feature> features = EnumSet.noneOf(Feature.class);
+        if((mask & FEATURE_IMAGE_TRACKING) != 0){
+            features.add(Feature.IMAGE_TRACKING);
+        }
+        if((mask & FEATURE_INSTANT_TRACKING) != 0){
+            features.add(Feature.INSTANT_TRACKING);
+        }
+        if((mask & FEATURE_OBJECT_TRACKING) != 0){
+            features.add(Feature.OBJECT_TRACKING);
+        }
+        if((mask & FEATURE_GEO) != 0){
+            features.add(Feature.GEO);
+        }
+        return features;
+    }
+
+    /**
+     * @param name 'sd' (640x480), 'hd' (1280x720), 'full_hd' (1920x1080) or 'auto'.
+     */
+    @Nullable
+    static CameraSettings.CameraResolution parseCameraResolution(@Nullable String name){
+        if(name == null){
+            return null;
+        }
+        switch (name.toLowerCase(Locale.US)){
+            case "sd":
+                return CameraSettings.CameraResolution.SD_640x480;
+            case "hd":
+                return CameraSettings.CameraResolution.HD_1280x720;
+            case "full_hd":
+                return CameraSettings.CameraResolution.FULL_HD_1920x1080;
+            case "auto":
+                return CameraSettings.CameraResolution.AUTO;
+            default:
+                WikitudeLog.w(TAG, "Unknown camera resolution %s", name);
+                return null;
+        }
+    }
+
+    /**
+     * @param name 'back', 'front' or 'default'.
+     */
+    @Nullable
+    static CameraSettings.CameraPosition parseCameraPosition(@Nullable String name){
+        if(name == null){
+            return null;
+        }
+        switch (name.toLowerCase(Locale.US)){
+            case "back":
+                return CameraSettings.CameraPosition.BACK;
+            case "front":
+                return CameraSettings.CameraPosition.FRONT;
+            case "default":
+                return CameraSettings.CameraPosition.DEFAULT;
+            default:
+                WikitudeLog.w(TAG, "Unknown camera position %s", name);
+                return null;
+        }
+    }
+
+    /**
+     * @param name 'continuous', 'once' or 'off'.
+     */
+    @Nullable
+    static CameraSettings.CameraFocusMode parseFocusMode(@Nullable String name){
+        if(name == null){
+            return null;
+        }
+        switch (name.toLowerCase(Locale.US)){
+            case "continuous":
+                return CameraSettings.CameraFocusMode.CONTINUOUS;
+            case "once":
+                return CameraSettings.CameraFocusMode.ONCE;
+            case "off":
+                return CameraSettings.CameraFocusMode.OFF;
+            default:
+                WikitudeLog.w(TAG, "Unknown focus mode %s", name);
+                return null;
+        }
+    }
+
+    /**
+     * Submits a location to the location pipeline, which filters it off the main thread
+     * before it is set on the SDK. Can be called from any thread.
+     * @param lat Latitude.
+     * @param lng Longitude.
+     * @param alt Altitude in meters, NaN if unknown.
+     * @param accuracy Accuracy in meters, NaN if unknown.
+     */
+    public void submitLocation(double lat, double lng, double alt, float accuracy){
+        this.locationPipeline.submit(lat, lng, alt, accuracy);
     }
-    public void setLng(Double lng){
-        this.lng = lng;
+
+    /**
+     * Sets the location of the world and updates the POI culling.
+     * @param lat Latitude.
+     * @param lng Longitude.
+     * @param alt Altitude in meters, NaN if unknown.
+     * @param accuracy Accuracy in meters.
+     */
+    public void injectLocation(double lat, double lng, double alt, float accuracy){
+        if(Double.isNaN(alt)){
+            this.setLocation(lat, lng, accuracy);
+        }else{
+            this.setLocation(lat, lng, alt, accuracy);
+        }
+        if(this.poiStore != null){
+            this.poiStore.onLocationChanged(lat, lng);
+        }
+        if(this.locationSource != null){
+            this.reportLocation(lat, lng, alt, accuracy);
+        }
     }
-    public void updateLocation(){
-        this.setLocation(this.lat,this.lng,100f);
+
+    /**
+     * Starts feeding the view from a native location source instead of locations injected from React.
+     * Locations go through the location pipeline; React only gets an `onLocationUpdate` summary
+     * every `reportInterval` milliseconds.
+     * @param options
+     *  - source:         'platform' (device location) or 'replay'.
+     *  - minInterval:    Minimum time between two locations in milliseconds.
+     *  - minDistance:    Minimum distance in meters from the last location.
+     *  - reportInterval: Minimum time between two `onLocationUpdate` events, 0 to disable them.
+     *  - fixes, loop, speed: Track to replay for the 'replay' source.
+     * @return boolean False if the source could not be started, React then gets an
+     *  `onLocationUpdate` event with the error.
+     */
+    public boolean startLocationSource(ReadableMap options){
+        this.stopLocationSource();
+        this.locationPipeline.configure(options);
+
+        long minInterval = options.hasKey("minInterval") ? (long) options.getDouble("minInterval") : 0;
+        float minDistance = options.hasKey("minDistance") ? (float) options.getDouble("minDistance") : 0;
+        String source = options.hasKey("source") && !options.isNull("source") ? options.getString("source") : "platform";
+        if("replay".equals(source)){
+            if(!options.hasKey("fixes") || options.getType("fixes") != ReadableType.Array){
+                return this.failLocationSource("The replay source needs an array of fixes");
+            }
+            try{
+                this.locationSource = new ReplayLocationSource(options.getArray("fixes"),
+                        options.hasKey("loop") && options.getBoolean("loop"),
+                        options.hasKey("speed") ? options.getDouble("speed") : 1);
+            }catch(RuntimeException e){
+                // fixes without a latitude or longitude, or with values that aren't numbers
+                return this.failLocationSource("Invalid replay fixes: " + e);
+            }
+        }else{
+            this.locationSource = new PlatformLocationSource(this.getContext(), minInterval, minDistance);
+        }
+        synchronized (this){
+            this.locationReportInterval = options.hasKey("reportInterval")
+                    ? (long) options.getDouble("reportInterval") : DEFAULT_LOCATION_REPORT_INTERVAL;
+            this.lastLocationReport = 0;
+            this.locationsReceived = 0;
+            this.locationsApplied = 0;
+        }
+        this.locationSourceStarted = this.locationSource.start(this.locationListener);
+        if(!this.locationSourceStarted){
+            return this.failLocationSource("Could not start " + source + " location source");
+        }
+        return true;
     }
-    public void setJS(String s){
-        this.javascript = s;
+
+    private boolean failLocationSource(String message){
+        WikitudeLog.e(TAG, "%s", message);
+        WritableMap event = Arguments.createMap();
+        event.putString("error", message);
+        this.viewManager.emitEvent(this, "onLocationUpdate", event);
+        return false;
     }
-    public void callJS(){
-        this.callJavascript(this.javascript);
+
+    public void stopLocationSource(){
+        if(this.locationSource != null){
+            this.locationSource.stop();
+            this.locationSource = null;
+            this.locationSourceStarted = false;
+        }
+    }
+
+    /**
+     * Emits an `onLocationUpdate` summary to React, at most once per report interval.
+     * Called on the main thread for every location applied to the SDK.
+     */
+    private void reportLocation(double lat, double lng, double alt, float accuracy){
+        WritableMap event;
+        synchronized (this){
+            this.locationsApplied++;
+            long now = SystemClock.uptimeMillis();
+            if(this.locationReportInterval <= 0 || now - this.lastLocationReport < this.locationReportInterval){
+                return;
+            }
+            this.lastLocationReport = now;
+            event = Arguments.createMap();
+            event.putDouble("latitude", lat);
+            event.putDouble("longitude", lng);
+            if(!Double.isNaN(alt)){
+                event.putDouble("altitude", alt);
+            }
+            event.putDouble("accuracy", accuracy);
+            event.putInt("received", this.locationsReceived);
+            event.putInt("applied", this.locationsApplied);
+        }
+        this.viewManager.emitEvent(this, "onLocationUpdate", event);
+    }
+    LocationPipeline getLocationPipeline(){
+        return this.locationPipeline;
+    }
+
+    /**
+     * Queues Javascript to be executed in the world. Queued snippets are merged and sent
+     * to the world once per frame, or once per batching window if one is set.
+     * Can be called from any thread.
+     * @param js Javascript to execute.
+     * @param key Optional key; replaces any pending snippet queued with the same key.
+     */
+    public void queueJavascript(String js, @Nullable String key){
+        this.jsQueue.enqueue(js, key);
+    }
+
+    /**
+     * Queues Javascript that is never dropped when the queue is full, Ex. a POI delta the
+     * world can't miss without getting out of sync.
+     */
+    void queueRequiredJavascript(String js){
+        this.jsQueue.enqueue(js, null, true);
+    }
+    public void setJavascriptBatchWindow(long windowMs){
+        this.jsQueue.setWindow(windowMs);
+    }
+
+    /**
+     * Sends the bridge metrics to React in an `onMetrics` event every interval.
+     * @param intervalMs Interval in milliseconds, 0 to stop.
+     */
+    public void setMetricsInterval(long intervalMs){
+        this.metricsHandler.removeCallbacks(this.metricsRunnable);
+        this.metricsIntervalMs = Math.max(0, intervalMs);
+        if(this.metricsIntervalMs > 0){
+            this.metricsHandler.postDelayed(this.metricsRunnable, this.metricsIntervalMs);
+        }
+    }
+    MainThreadScheduler getScheduler(){
+        return this.scheduler;
+    }
+    JavascriptQueue getJavascriptQueue(){
+        return this.jsQueue;
     }
 
     /**
      * Loads the "world" i.e. the index JS file containing the view.
+     * Waits until the view is created and has a URL, and does nothing if the world with
+     * the current URL is already loading or loaded. A world that failed to load is loaded again.
      */
     public void loadWorld(){
+        if(!this.isCreated()){
+            WikitudeLog.d(TAG, "View not created yet, the world is loaded once it is.");
+            return;
+        }
         if(this.url.equals("")){
-            Log.d(TAG, "World URL not received yet.");
+            WikitudeLog.d(TAG, "World URL not received yet.");
             return;
         }
+        if(this.url.equals(this.worldUrl) && this.worldState != WorldState.FAILED){
+            return;
+        }
+        String target = this.url;
+        this.releaseCachedWorld();
+        if(this.url.startsWith(WorldBundleManager.SCHEME + "://")){
+            target = WorldBundleManager.get(this.getContext().getFilesDir()).resolve(this.url);
+            if(target == null){
+                // fail right away instead of waiting for a world that isn't there
+                this.worldState = WorldState.FAILED;
+                this.worldUrl = this.url;
+                this.viewManager.worldLoadFailed(this, -1, "Bundle not staged", this.url);
+                return;
+            }
+        }else if(this.url.startsWith("http://") || this.url.startsWith("https://")){
+            // only an in-memory lookup, the cache reads and writes the disk in the background
+            WorldAssetCache cache = WorldAssetCache.get(this.getContext().getCacheDir());
+            String cached = cache.resolve(this.url);
+            if(cached != null){
+                // load the warm copy, and check for a newer one for the next time
+                target = cached;
+                this.cachedWorldUrl = cached;
+                cache.revalidate(this.url);
+            }
+        }
         try{
-            this.load(this.url);
+            this.worldState = WorldState.LOADING;
+            this.worldUrl = this.url;
+            this.worldLoadStart = System.nanoTime();
+            this.load(target);
+            WikitudeLog.d(TAG, "Loading world %s", target);
         }catch(IOException e){
-            Log.e(TAG,e.getMessage());
+            this.worldState = WorldState.FAILED;
+            WikitudeLog.e(TAG, "Error loading world %s: %s", target, e);
         }
-        Log.d(TAG, "Loaded world " + this.url);
+    }
+
+    /**
+     * Stops the per-session work of the view and forgets its state, before it is parked in
+     * the view pool, so the next session starts like on a new view. The world stays loaded,
+     * its POIs are removed.
+     */
+    void reset(){
+        this.scheduler.clear();
+        this.jsQueue.clear();
+        this.setMetricsInterval(0);
+        this.captureStream.stop();
+        this.bulkDataChannel.cancelAll();
+        this.stopLocationSource();
+        // the scheduler dropped any pending location, the pipeline has to post the next one
+        this.locationPipeline.reset();
+        this.poiStore.reset();
+        ScreenCaptureEncoder.clearFiles(this.getContext().getCacheDir());
+        this.eventBatcher.clear();
+        this.telemetry.configure(null);
     }
 
     /**
@@ -164,33 +764,143 @@ class WikitudeView  extends ArchitectView implements LifecycleOwner {
      * @param mode Capture mode to use.
      */
     public void captureScreen(Boolean mode){
-        int insideMode;
-        if(mode){
-            insideMode = ArchitectView.CaptureScreenCallback.CAPTURE_MODE_CAM_AND_WEBVIEW;
-        }else{
-            insideMode = ArchitectView.CaptureScreenCallback.CAPTURE_MODE_CAM;
-        }
-        Log.d(TAG,"CaptureScreen called, MODE: "+ String.valueOf(insideMode));
+        this.captureScreen(mode, new CaptureOptions());
+    }
+
+    /**
+     * Performs a screen capture. The captured image is encoded in the background
+     * according to the given options.
+     * @param mode Capture mode to use.
+     * @param options Format, quality, size and output of the capture.
+     */
+    public void captureScreen(Boolean mode, final CaptureOptions options){
+        int insideMode = getCaptureMode(mode);
+        WikitudeLog.v(TAG, "CaptureScreen called, MODE: %s", insideMode);
 
         // calls ArchitectView captureScreen
-        this.captureScreen(insideMode, this.viewManager);
+        final long start = System.nanoTime();
+        this.captureScreen(insideMode, new ArchitectView.CaptureScreenCallback() {
+            @Override
+            public void onScreenCaptured(Bitmap image) {
+                BridgeMetrics.record(BridgeMetrics.CAPTURE, start);
+                viewManager.onScreenCaptured(WikitudeView.this, image, options);
+            }
+        });
+    }
+
+    /**
+     * Performs a screen capture and reports the encoded image to a callback instead of an event.
+     * Must be called on the main thread.
+     * @param mode Capture mode to use.
+     * @param options Format, quality, size and output of the capture.
+     * @param callback Receives the encoded image on the encoder thread.
+     */
+    void captureScreen(Boolean mode, final CaptureOptions options, final ScreenCaptureEncoder.Callback callback){
+        final long start = System.nanoTime();
+        this.captureScreen(getCaptureMode(mode), new ArchitectView.CaptureScreenCallback() {
+            @Override
+            public void onScreenCaptured(Bitmap image) {
+                BridgeMetrics.record(BridgeMetrics.CAPTURE, start);
+                ScreenCaptureEncoder.encode(image, options, getContext().getCacheDir(), callback);
+            }
+        });
+    }
+
+    CaptureStream getCaptureStream(){
+        return this.captureStream;
+    }
+    BulkDataChannel getBulkDataChannel(){
+        return this.bulkDataChannel;
+    }
+    PoiStore getPoiStore(){
+        return this.poiStore;
+    }
+    EventBatcher getEventBatcher(){
+        return this.eventBatcher;
+    }
+    FrameTelemetry getTelemetry(){
+        return this.telemetry;
+    }
+
+    /**
+     * Converts the capture mode received from React to an ArchitectView capture mode.
+     * @param mode True to capture the camera and the world, false for only the camera.
+     * @return int ArchitectView capture mode.
+     */
+    static int getCaptureMode(Boolean mode){
+        if(mode){
+            return ArchitectView.CaptureScreenCallback.CAPTURE_MODE_CAM_AND_WEBVIEW;
+        }
+        return ArchitectView.CaptureScreenCallback.CAPTURE_MODE_CAM;
     }
 
     public void createWikitude(){
-        Log.d(TAG,"Creating Wikitude view");
-        this.onCreate(startUpConfig);
+        WikitudeLog.d(TAG, "Creating Wikitude view");
+        EnumSet<Feature> features = this.features != null ? this.features : this.featureMask;
+        if(features != null){
+            this.startUpConfig.setFeatures(features);
+        }
+        if(this.cameraResolution != null){
+            this.startUpConfig.setCameraResolution(this.cameraResolution);
+        }
+        if(this.cameraPosition != null){
+            this.startUpConfig.setCameraPosition(this.cameraPosition);
+        }
+        if(this.focusMode != null){
+            this.startUpConfig.setCameraFocusMode(this.focusMode);
+        }
+        if(this.camera2Enabled != null){
+            this.startUpConfig.setCamera2Enabled(this.camera2Enabled);
+        }
+        try{
+            this.onCreate(startUpConfig);
+        }catch(ArchitectView.MissingFeatureException | ArchitectView.CamNotAccessibleException e){
+            WikitudeLog.e(TAG, "Could not start the view: %s", e);
+            this.startFailed = true;
+            this.worldState = WorldState.FAILED;
+            this.viewManager.worldLoadFailed(this, -1, "Could not start the view: " + e.getMessage(), this.url);
+            return;
+        }
         this.onPostCreate();
-        this.registerWorldLoadedListener(this.viewManager);
+        this.registerWorldLoadedListener(this);
         this.loadWorld();
+        if(this.resumeRequested){
+            this.resumeRequested = false;
+            this.onResume();
+        }
     }
 
-    public boolean isUrl(String url){
-        try{
-            new URL(url).toURI();
-            return true;
-        }catch(Exception e){
-            return false;
+    @Override
+    public void onJSONObjectReceived(JSONObject jsonObject) {
+        this.telemetry.onJsonMessage();
+        this.viewManager.onJSONObjectReceived(this, jsonObject);
+    }
+
+    @Override
+    public void worldWasLoaded(String s) {
+        if(this.worldState == WorldState.LOADING){
+            BridgeMetrics.record(BridgeMetrics.WORLD_LOAD, this.worldLoadStart);
         }
+        this.worldState = WorldState.LOADED;
+        this.viewManager.worldWasLoaded(this, s);
+    }
+
+    @Override
+    public void worldLoadFailed(int errorCode, String description, String failingUrl) {
+        if(this.worldState == WorldState.LOADING){
+            BridgeMetrics.record(BridgeMetrics.WORLD_LOAD, this.worldLoadStart);
+        }
+        this.worldState = WorldState.FAILED;
+        this.viewManager.worldLoadFailed(this, errorCode, description, failingUrl);
+    }
+
+    /**
+     * @param url URL or name of a local world.
+     * @return boolean True if the URL has a scheme, Ex. 'https' or 'bundle'.
+     */
+    public boolean isUrl(String url){
+        String scheme = Uri.parse(url).getScheme();
+        return scheme != null && !scheme.isEmpty();
     }
 }
 
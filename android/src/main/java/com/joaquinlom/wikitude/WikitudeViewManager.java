@@ -3,22 +3,19 @@ package com.joaquinlom.wikitude;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.os.Handler;
+import android.view.View;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.constraintlayout.widget.ConstraintLayout;
-import androidx.lifecycle.Lifecycle;
 
-import android.util.Log;
-import android.util.Base64;
 import com.facebook.react.bridge.ActivityEventListener;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.BaseActivityEventListener;
 import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
-import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.common.MapBuilder;
 import com.facebook.react.uimanager.SimpleViewManager;
@@ -26,34 +23,45 @@ import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import org.json.JSONObject;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.wikitude.architect.ArchitectJavaScriptInterfaceListener;
 import com.wikitude.architect.ArchitectView;
 
 
 /**
  * This class is what handles creating new WikitudeView instances on the React-Native side.
- * It extends SimpleViewManager and implements Wikitude's Architect classes.
+ * It extends SimpleViewManager and keeps a registry of the mounted views, keyed by their React tag,
+ * so events are sent to the view they came from and commands reach the view they target.
  *
  * See more at: https://reactnative.dev/docs/native-components-android#1-create-the-viewmanager-subclass
  *         And: https://reactnative.dev/docs/native-components-android#3-create-the-viewmanager-subclass
  */
-public class WikitudeViewManager
-        extends SimpleViewManager<WikitudeView>
-        implements ArchitectJavaScriptInterfaceListener, ArchitectView.ArchitectWorldLoadedListener, ArchitectView.CaptureScreenCallback {
+public class WikitudeViewManager extends SimpleViewManager<WikitudeView> {
 
     //Commands
     public static final String COMMAND_SET_URL = "setUrl";
     public static final String COMMAND_CALL_JAVASCRIPT = "callJS";
+    public static final String COMMAND_CALL_JS_FUNCTION = "callJSFunction";
     public static final String COMMAND_INJECT_LOCATION = "injectLocation";
+    public static final String COMMAND_CONFIGURE_LOCATION = "configureLocation";
+    public static final String COMMAND_START_NATIVE_LOCATION = "startNativeLocation";
+    public static final String COMMAND_STOP_NATIVE_LOCATION = "stopNativeLocation";
     public static final String COMMAND_PAUSE_AR = "stopAR";
     public static final String COMMAND_RESUME_AR = "resumeAR";
     public static final String COMMAND_CAPTURE_SCREEN = "captureScreen";
+    public static final String COMMAND_GET_QUEUE_STATS = "getQueueStats";
+    public static final String COMMAND_START_CAPTURE_STREAM = "startCaptureStream";
+    public static final String COMMAND_STOP_CAPTURE_STREAM = "stopCaptureStream";
+    public static final String COMMAND_ACK_CAPTURE_FRAME = "ackCaptureFrame";
+    public static final String COMMAND_SEND_BULK_DATA = "sendBulkData";
+    public static final String COMMAND_SEND_BULK_FILE = "sendBulkFile";
+    public static final String COMMAND_SET_POIS = "setPois";
+    public static final String COMMAND_CLEAR_POIS = "clearPois";
+    public static final String COMMAND_SET_POI_CULLING = "setPoiCulling";
     //public static final int COMMAND_GET_ANNOTATIONS = 4;
 
-    WikitudeView wikitude;
     ArchitectView architectView;
     ReactContext ctx;
     String licenseKey = "";
@@ -62,6 +70,9 @@ public class WikitudeViewManager
     ConstraintLayout container;
     Boolean firstTime = true;
     Boolean hasCameraPermission = false;
+    private final WikitudeViewPool viewPool = new WikitudeViewPool(this);
+    // Mounted views by React tag
+    private final ConcurrentHashMap<Integer, WikitudeView> views = new ConcurrentHashMap<>();
 
     // Log tag
     private final String TAG ="WikitudeViewManager";
@@ -73,7 +84,7 @@ public class WikitudeViewManager
     public WikitudeViewManager(ReactApplicationContext context){
         super();
         this.ctx = context;
-        Log.d(TAG, "WikitudeViewManager instantiated.");
+        WikitudeLog.d(TAG, "WikitudeViewManager instantiated.");
     }
 
     /**
@@ -99,14 +110,40 @@ public class WikitudeViewManager
         this.ctx = context;
         this.activity  = context.getCurrentActivity();
 
-        // Views should be created in a default state, and later updated by a followup call to updateView
-        this.wikitude = new WikitudeView(this.activity, this.ctx, this.licenseKey,this);
-        // add JS listener so we can send the view JS code if needed
-        this.wikitude.addArchitectJavaScriptInterfaceListener(this);
+        // use a prewarmed view if there is one; its props are applied again without restarting it
+        WikitudeView view = this.viewPool.acquire(this.activity);
+        if(view == null){
+            // Views should be created in a default state, and later updated by a followup call to updateView
+            view = this.newView(this.activity);
+        }else{
+            WikitudeLog.d(TAG, "Using a prewarmed view.");
+        }
         // add lifecycle listener so that we can invoke lifecycle methods
         this.ctx.addLifecycleEventListener(this.mLifeEventListener);
 
-        return this.wikitude;
+        return view;
+    }
+
+    /**
+     * @param reactTag React tag of a view. Ex. findNodeHandle(ref)
+     * @return WikitudeView The mounted view with that tag, or null if there is none.
+     */
+    @Nullable
+    public WikitudeView getView(int reactTag){
+        return this.views.get(reactTag);
+    }
+
+    /**
+     * Creates a new view, without a license key or URL.
+     * @param activity Activity of the view.
+     * @return WikitudeView A new Wikitude View instance.
+     */
+    WikitudeView newView(Activity activity){
+        return new WikitudeView(activity, this.ctx, this.licenseKey, this);
+    }
+
+    WikitudeViewPool getViewPool(){
+        return this.viewPool;
     }
 
     /**
@@ -117,11 +154,13 @@ public class WikitudeViewManager
     @Override
     public void onDropViewInstance(@NonNull WikitudeView view) {
         super.onDropViewInstance(view);
-        Log.d(TAG,"View was removed from screen.");
-        Lifecycle.State state = view.getLifecycle().getCurrentState();
-        if(state == Lifecycle.State.RESUMED){
-            view.onPause();
+        WikitudeLog.d(TAG, "View was removed from screen.");
+        this.views.remove(view.getId(), view);
+        if(this.viewPool.release(view)){
+            WikitudeLog.d(TAG, "View was returned to the pool.");
+            return;
         }
+        view.onPause();
         view.onDestroy();
     }
 
@@ -134,40 +173,99 @@ public class WikitudeViewManager
      * See more at: https://reactnative.dev/docs/native-components-android#3-expose-view-property-setters-using-reactprop-or-reactpropgroup-annotation
      */
 
-    @ReactProp(name = "isRunning")
+    /**
+     * Pauses the view while false. Goes through the lifecycle lane of the view's scheduler,
+     * like the stopAR and resumeAR commands.
+     */
+    @ReactProp(name = "isRunning", defaultBoolean = true)
     public void setIsRunning(WikitudeView view, boolean isRunning){
-        Log.d(TAG,"set Is running to " + isRunning);
+        WikitudeLog.d(TAG, "set Is running to %s", isRunning);
+        view.getScheduler().setResumed(isRunning);
     }
+    /**
+     * Features to start, as the bit mask of the iOS constants. 0 starts all features.
+     * The `features` prop takes precedence.
+     */
     @ReactProp(name = "feature")
     public void setFeature(WikitudeView view, int feature){
-        // TODO
+        view.setFeatureMask(WikitudeView.parseFeatureMask(feature));
+    }
+    /**
+     * Features to start, Ex. ['image_tracking']. Sensors and trackers of other features are not started.
+     * Startup options only apply to views that aren't started yet.
+     */
+    @ReactProp(name = "features")
+    public void setFeatures(WikitudeView view, @Nullable ReadableArray features){
+        view.setFeatures(WikitudeView.parseFeatures(features));
+    }
+    @ReactProp(name = "cameraResolution")
+    public void setCameraResolution(WikitudeView view, @Nullable String resolution){
+        view.setCameraResolution(WikitudeView.parseCameraResolution(resolution));
+    }
+    @ReactProp(name = "cameraPosition")
+    public void setCameraPosition(WikitudeView view, @Nullable String position){
+        view.setCameraPosition(WikitudeView.parseCameraPosition(position));
+    }
+    @ReactProp(name = "focusMode")
+    public void setFocusMode(WikitudeView view, @Nullable String focusMode){
+        view.setFocusMode(WikitudeView.parseFocusMode(focusMode));
+    }
+    @ReactProp(name = "camera2Enabled")
+    public void setCamera2Enabled(WikitudeView view, @Nullable Boolean enabled){
+        view.setCamera2Enabled(enabled);
     }
     @ReactProp(name = "url")
     public void setUrl(WikitudeView view, String url) {
-        Log.d(TAG,"Setting url: "+url);
+        WikitudeLog.d(TAG, "Setting url: %s", url);
         view.setUrl(url);
     }
+    @ReactProp(name = "jsBatchWindow")
+    public void setJsBatchWindow(WikitudeView view, int windowMs) {
+        view.setJavascriptBatchWindow(windowMs);
+    }
+    @ReactProp(name = "jsonBatching")
+    public void setJsonBatching(WikitudeView view, @Nullable ReadableMap config) {
+        view.getEventBatcher().configure(config);
+    }
+    @ReactProp(name = "metricsInterval")
+    public void setMetricsInterval(WikitudeView view, int intervalMs) {
+        view.setMetricsInterval(intervalMs);
+    }
+    @ReactProp(name = "telemetry")
+    public void setTelemetry(WikitudeView view, @Nullable ReadableMap config) {
+        view.getTelemetry().configure(config);
+    }
     @ReactProp(name = "licenseKey")
     public void setLicenseKey(WikitudeView view, String licenseKey) {
-        Log.d(TAG,"Setting License"+licenseKey);
+        WikitudeLog.d(TAG, "Setting license key");
         view.setLicenseKey(licenseKey);
     }
 
-    @ReactMethod
-    public void setNewUrl(String url){
-        if(this.wikitude != null){
-            if(this.activity != null ){
-                this.wikitude.setUrl(url);
-                Handler mainHandler = new Handler(this.activity.getMainLooper());
-                Runnable myRunnable = new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG,"Changed url to " + url);
-                        wikitude.loadWorld();
-                    }
-                };
-                mainHandler.post(myRunnable);
-            }
+    /**
+     * Registers the view under its React tag, and starts the SDK once all props of the first
+     * update are set, so the startup options apply.
+     * The tag is always set here; when views are created, older React Native versions only set it
+     * after addEventEmitters.
+     */
+    @Override
+    protected void onAfterUpdateTransaction(@NonNull WikitudeView view) {
+        super.onAfterUpdateTransaction(view);
+        int reactTag = view.getId();
+        if(reactTag != View.NO_ID && this.views.get(reactTag) != view){
+            this.views.put(reactTag, view);
+        }
+        view.startIfReady();
+    }
+
+    /**
+     * Changes the URL of a view on its next frame. Can be called from any thread.
+     * @param reactTag React tag of the view.
+     * @param url New URL; only the latest URL of a frame is loaded.
+     */
+    public void setNewUrl(int reactTag, String url){
+        WikitudeView view = this.views.get(reactTag);
+        if(view != null){
+            view.getScheduler().setUrl(url);
         }
     }
 
@@ -175,7 +273,7 @@ public class WikitudeViewManager
     final ActivityEventListener mActivityEventListener = new BaseActivityEventListener() {
         @Override
         public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent intent) {
-            Log.d(TAG, "Activity event " + activity);
+            WikitudeLog.d(TAG, "Activity event %s", activity);
             if(requestCode == 13){
             }
         }
@@ -185,21 +283,22 @@ public class WikitudeViewManager
     final LifecycleEventListener mLifeEventListener = new LifecycleEventListener() {
         @Override
         public void onHostResume() {
-            if(wikitude != null){
-                Log.d(TAG,"onResume Wikitude");
+            for(WikitudeView view : views.values()){
+                view.onHostResume();
             }
         }
         @Override
         public void onHostPause() {
-            if(wikitude != null) {
-                Log.d(TAG,"onPause Wikitude");
+            for(WikitudeView view : views.values()){
+                view.onHostPause();
             }
         }
         @Override
         public void onHostDestroy() {
-            if(wikitude != null){
-                Log.d(TAG,"onDestroy Wikitude");
+            if(!views.isEmpty()){
+                WikitudeLog.d(TAG, "onDestroy Wikitude");
             }
+            viewPool.onHostDestroy();
         }
     };
 
@@ -211,7 +310,16 @@ public class WikitudeViewManager
      */
     @Override
     public void receiveCommand(@NonNull WikitudeView view, String commandId, @Nullable ReadableArray args) {
-        Log.d(TAG, "Received command " + commandId + " from React.");
+        WikitudeLog.v(TAG, "Received command %s from React.", commandId);
+        long start = System.nanoTime();
+        try{
+            this.executeCommand(view, commandId, args);
+        }finally {
+            BridgeMetrics.record(BridgeMetrics.COMMAND, start);
+        }
+    }
+
+    private void executeCommand(WikitudeView view, String commandId, @Nullable ReadableArray args) {
         switch (commandId){
             case COMMAND_SET_URL:
                 assert args != null;
@@ -219,25 +327,92 @@ public class WikitudeViewManager
                 break;
             case COMMAND_CALL_JAVASCRIPT:
                 assert args != null;
-                view.callJavascript(args.getString(0));
+                String key = args.size() > 1 && !args.isNull(1) ? args.getString(1) : null;
+                view.queueJavascript(args.getString(0), key);
+                break;
+            case COMMAND_CALL_JS_FUNCTION:
+                assert args != null;
+                String functionKey = args.size() > 2 && !args.isNull(2) ? args.getString(2) : null;
+                try {
+                    view.queueJavascript(buildFunctionCall(args.getString(0), args.getArray(1)), functionKey);
+                }catch(IOException ex){
+                    WikitudeLog.e(TAG, "Exception while serializing function arguments: %s", ex);
+                }
                 break;
             case COMMAND_INJECT_LOCATION:
                 assert args != null;
-                view.setLocation(args.getDouble(0),args.getDouble(1),100f);
+                double altitude = args.size() > 2 && !args.isNull(2) ? args.getDouble(2) : Double.NaN;
+                float accuracy = args.size() > 3 && !args.isNull(3) ? (float) args.getDouble(3) : Float.NaN;
+                view.submitLocation(args.getDouble(0), args.getDouble(1), altitude, accuracy);
+                break;
+            case COMMAND_CONFIGURE_LOCATION:
+                assert args != null;
+                view.getLocationPipeline().configure(args.getMap(0));
+                break;
+            case COMMAND_START_NATIVE_LOCATION:
+                assert args != null;
+                view.startLocationSource(args.getMap(0));
+                break;
+            case COMMAND_STOP_NATIVE_LOCATION:
+                view.stopLocationSource();
                 break;
             case COMMAND_RESUME_AR:
-                view.onResume();
-                view.loadWorld();
+                // a pause and resume within the same frame cancel out
+                view.getScheduler().setResumed(true);
                 break;
             case COMMAND_PAUSE_AR:
-                view.onPause();
+                view.getScheduler().setResumed(false);
                 break;
             case COMMAND_CAPTURE_SCREEN:
                 assert args != null;
-                view.captureScreen(args.getBoolean(0));
+                ReadableMap captureOptions = args.size() > 1 && !args.isNull(1) ? args.getMap(1) : null;
+                view.captureScreen(args.getBoolean(0), CaptureOptions.fromReadableMap(captureOptions));
+                break;
+            case COMMAND_START_CAPTURE_STREAM:
+                assert args != null;
+                this.startCaptureStream(view, args);
+                break;
+            case COMMAND_STOP_CAPTURE_STREAM:
+                view.getCaptureStream().stop();
+                break;
+            case COMMAND_ACK_CAPTURE_FRAME:
+                view.getCaptureStream().acknowledgeFrame();
+                break;
+            case COMMAND_SEND_BULK_DATA:
+                assert args != null;
+                view.getBulkDataChannel().send(args.getString(0), args.getMap(1),
+                        args.size() > 2 && !args.isNull(2) ? args.getMap(2) : null);
+                break;
+            case COMMAND_SEND_BULK_FILE:
+                assert args != null;
+                view.getBulkDataChannel().sendFile(args.getString(0), args.getString(1),
+                        args.size() > 2 && !args.isNull(2) ? args.getMap(2) : null);
+                break;
+            case COMMAND_SET_POIS:
+                assert args != null;
+                view.getPoiStore().setPois(args.getArray(0), args.size() > 1 && !args.isNull(1) ? args.getMap(1) : null);
+                break;
+            case COMMAND_CLEAR_POIS:
+                view.getPoiStore().clear();
+                break;
+            case COMMAND_SET_POI_CULLING:
+                assert args != null;
+                if(args.size() == 0 || args.isNull(0)){
+                    // no options, the world gets all POIs again
+                    view.getPoiStore().setCulling(0, 0, -1);
+                    break;
+                }
+                ReadableMap culling = args.getMap(0);
+                view.getPoiStore().setCulling(
+                        culling.hasKey("radius") ? culling.getDouble("radius") : 0,
+                        culling.hasKey("maxCount") ? culling.getInt("maxCount") : 0,
+                        culling.hasKey("recullDistance") ? culling.getDouble("recullDistance") : -1);
+                break;
+            case COMMAND_GET_QUEUE_STATS:
+                this.emitEvent(view, "onQueueStats", this.getQueueStats(view));
                 break;
             default:
-                Log.e(TAG, "Invalid command " + commandId + " received from React.");
+                WikitudeLog.e(TAG, "Invalid command %s received from React.", commandId);
         }
     }
 
@@ -266,59 +441,141 @@ public class WikitudeViewManager
                 .put("onFailLoading",
                         MapBuilder.of( "phasedRegistrationNames",  MapBuilder.of("bubbled", "onFailLoading")))
                 .put("onScreenCaptured",
-                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onScreenCaptured"))
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onScreenCaptured")))
+                .put("onQueueStats",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onQueueStats")))
+                .put("onCaptureFrame",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onCaptureFrame")))
+                .put("onCaptureStreamStats",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onCaptureStreamStats")))
+                .put("onBulkDataSent",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onBulkDataSent")))
+                .put("onPoiSync",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onPoiSync"))
+                )
+                .put("onLocationUpdate",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onLocationUpdate"))
+                )
+                .put("onJsonBatch",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onJsonBatch"))
+                )
+                .put("onMetrics",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onMetrics"))
+                )
+                .put("onTelemetry",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onTelemetry"))
+                )
+                .put("onFrameBudgetExceeded",
+                        MapBuilder.of("phasedRegistrationNames",   MapBuilder.of("bubbled", "onFrameBudgetExceeded"))
                 ).build();
     }
 
-    public void setLocation(Double lat,Double lng){
-        if(this.wikitude != null){
-            if(this.activity != null ){
-                wikitude.setLat(lat);
-                wikitude.setLng(lng);
-                Handler mainHandler = new Handler(this.activity.getMainLooper());
-                Runnable myRunnable = new Runnable() {
-                    @Override
-                    public void run() {
-                            Log.d(TAG,"Change location");
-                            wikitude.updateLocation();
-                    }
-                };
-                mainHandler.post(myRunnable);
-            }
+    /**
+     * Submits a location to the location pipeline of a view. Can be called from any thread.
+     * @param reactTag React tag of the view.
+     * @param lat Latitude.
+     * @param lng Longitude.
+     */
+    public void setLocation(int reactTag, double lat, double lng){
+        WikitudeView view = this.views.get(reactTag);
+        if(view != null){
+            view.submitLocation(lat, lng, Double.NaN, Float.NaN);
+        }
+    }
+
+    /**
+     * Queues Javascript to be executed in the world of a view. Can be called from any thread.
+     * @param reactTag React tag of the view.
+     * @param s Javascript to execute.
+     */
+    public void callJavascript(int reactTag, String s){
+        WikitudeView view = this.views.get(reactTag);
+        if(view != null){
+            view.queueJavascript(s, null);
         }
     }
 
-    public void callJavascript(String s){
-        if(this.wikitude != null){
-            if(this.activity != null ){
-                wikitude.setJS(s);
-                Handler mainHandler = new Handler(this.activity.getMainLooper());
-                Runnable myRunnable = new Runnable() {
-                    @Override
-                    public void run() {
-                            Log.d(TAG,"Call JS");
-                            wikitude.callJS();
-                    }
-                };
-                mainHandler.post(myRunnable);
+    /**
+     * Starts continuously capturing the screen of a view.
+     * Args are [fps, options, maxInFlight], where options are the capture options plus
+     * `captureWebView` (defaults to true) and `acknowledge` (defaults to false).
+     * @param view View to capture.
+     * @param args Args passed with the command.
+     */
+    private void startCaptureStream(WikitudeView view, ReadableArray args){
+        double fps = args.getDouble(0);
+        ReadableMap options = args.size() > 1 && !args.isNull(1) ? args.getMap(1) : null;
+        int maxInFlight = args.size() > 2 && !args.isNull(2) ? args.getInt(2) : CaptureStream.DEFAULT_MAX_IN_FLIGHT;
+
+        boolean captureWebView = true;
+        boolean acknowledge = false;
+        if(options != null){
+            if(options.hasKey("captureWebView") && !options.isNull("captureWebView")){
+                captureWebView = options.getBoolean("captureWebView");
+            }
+            if(options.hasKey("acknowledge") && !options.isNull("acknowledge")){
+                acknowledge = options.getBoolean("acknowledge");
             }
         }
+        view.getCaptureStream().start(fps, captureWebView, CaptureOptions.fromReadableMap(options), maxInFlight, acknowledge);
     }
 
-    public void resumeAR(){
-        if(this.activity != null ){
-            Handler mainHandler = new Handler(this.activity.getMainLooper());
-            Runnable myRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    wikitude.clearCache();
-                    wikitude.loadWorld();
-                    Log.d(TAG,"On resume en handler");
-                    wikitude.onResume();
-                    wikitude.loadWorld();
-                }
-            };
-            mainHandler.post(myRunnable);
+    /**
+     * Builds the Javascript source of a function call. The arguments are streamed
+     * straight into the source as JSON.
+     * @param function Name of the function in the world. Ex. 'World.loadPois'
+     * @param arguments Arguments of the call.
+     * @return String Javascript source of the call.
+     * @throws IOException If the arguments could not be serialized.
+     */
+    static String buildFunctionCall(String function, @Nullable ReadableArray arguments) throws IOException {
+        if(arguments == null || arguments.size() == 0){
+            return function + "()";
+        }
+        String json = JsonConvert.reactToJSONString(arguments);
+        // reuse the array brackets as the parentheses of the call
+        return function + "(" + json.substring(1, json.length() - 1) + ")";
+    }
+
+    /**
+     * Builds the statistics of the Javascript queue of a view.
+     * @param view View to report on.
+     * @return WritableMap Queue depth and counters.
+     */
+    public WritableMap getQueueStats(WikitudeView view){
+        JavascriptQueue queue = view.getJavascriptQueue();
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("depth", queue.getDepth());
+        stats.putDouble("queued", queue.getQueuedCount());
+        stats.putDouble("merged", queue.getMergedCount());
+        stats.putDouble("superseded", queue.getSupersededCount());
+        stats.putDouble("dropped", queue.getDroppedCount());
+        stats.putDouble("flushes", queue.getFlushCount());
+        stats.putDouble("scheduledSuperseded", view.getScheduler().getSupersededCount());
+        stats.putDouble("deferredFrames", view.getScheduler().getDeferredFrames());
+        return stats;
+    }
+
+    /**
+     * Builds a snapshot of the bridge metrics of all views.
+     * @return WritableMap Latency histograms, counters and the pending Javascript of all mounted views.
+     */
+    public WritableMap getMetrics(){
+        int queueDepth = 0;
+        for(WikitudeView view : this.views.values()){
+            queueDepth += view.getJavascriptQueue().getDepth();
+        }
+        return BridgeMetrics.snapshot(queueDepth);
+    }
+
+    /**
+     * Resumes a view on its next frame. Can be called from any thread.
+     * @param reactTag React tag of the view.
+     */
+    public void resumeAR(int reactTag){
+        WikitudeView wikitude = this.views.get(reactTag);
+        if(wikitude != null){
+            wikitude.getScheduler().setResumed(true);
         }
     }
     public Thread getThreadByName(String threadName) {
@@ -327,56 +584,67 @@ public class WikitudeViewManager
         }
         return null;
     }
-    public void stopAR(){
-        //wikitude.onPause();
-        if(this.wikitude != null){
-            if(this.activity != null ){
-                Handler mainHandler = new Handler(this.activity.getMainLooper());
-                Runnable myRunnable = new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG,"OnPause en handler");
-                        wikitude.clearCache();
-                        wikitude.onPause();
-                    }
-                };
-                mainHandler.post(myRunnable);
-            }
+
+    /**
+     * Pauses a view on its next frame. Can be called from any thread.
+     * @param reactTag React tag of the view.
+     */
+    public void stopAR(int reactTag){
+        WikitudeView wikitude = this.views.get(reactTag);
+        if(wikitude != null){
+            wikitude.getScheduler().setResumed(false);
         }
-        
     }
 
     /**
-     * Event handler triggered when the screenCapture function is called..
-     * Is linked to `onJsonReceived` event in React.
+     * Encodes a captured image in the background and sends it to React.
+     * Is linked to `onScreenCaptured` event in React.
      *
+     * @param view View that was captured.
      * @param image A bitmap image.
+     * @param options Format, quality, size and output of the capture.
      */
-    @Override
-    public void onScreenCaptured(Bitmap image){
-        //Bitmap to byte[]
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();  
-        image.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOutputStream);
-        byte[] byteArray = byteArrayOutputStream .toByteArray();
-        String encoded = Base64.encodeToString(byteArray, Base64.DEFAULT);
+    public void onScreenCaptured(final WikitudeView view, Bitmap image, CaptureOptions options){
+        ScreenCaptureEncoder.encode(image, options, this.ctx.getCacheDir(), new ScreenCaptureEncoder.Callback() {
+            @Override
+            public void onEncoded(WritableMap result) {
+                emitEvent(view, "onScreenCaptured", result);
+            }
 
-        this.emitEvent("image","onScreenCaptured", encoded);
+            @Override
+            public void onError(String message) {
+                WritableMap event = Arguments.createMap();
+                event.putString("error", message);
+                emitEvent(view, "onScreenCaptured", event);
+            }
+        });
     }
 
     /**
      * Event handler for parsing JSON.
      * Is linked to `onJsonReceived` event in React.
+     * The JSON is sent as a structured map in the `message` property of the event,
+     * or in a batch with other messages when `jsonBatching` is set.
      *
+     * @param view View whose world sent the JSON.
      * @param jsonObject JSON that was received.
      */
-    @Override
-    public void onJSONObjectReceived(JSONObject jsonObject) {
-        Log.d("Wikitude onJsonReceived","jsonObject receive");
+    public void onJSONObjectReceived(WikitudeView view, JSONObject jsonObject) {
+        WikitudeLog.v(TAG, "JSON received from the world");
+        BridgeMetrics.count(BridgeMetrics.JSON_MESSAGES, 1);
+        if(view.getEventBatcher().isEnabled()){
+            // sent later with other messages in one `onJsonBatch` event
+            view.getEventBatcher().add(jsonObject);
+            return;
+        }
         try {
-            WritableMap map = JsonConvert.jsonToReact(jsonObject);
-            this.emitEvent("onJsonReceived", map.toString());
+            long start = System.nanoTime();
+            WritableMap event = Arguments.createMap();
+            event.putMap("message", JsonConvert.jsonToReact(jsonObject));
+            BridgeMetrics.record(BridgeMetrics.JSON_CONVERT, start);
+            this.emitEvent(view, "onJsonReceived", event);
         }catch(org.json.JSONException ex){
-            Log.d(TAG, "Exception while parsing received JSON: " + ex);
+            WikitudeLog.e(TAG, "Exception while parsing received JSON: %s", ex);
         }
     }
 
@@ -384,55 +652,79 @@ public class WikitudeViewManager
      * Event handler for when a world loaded successfully.
      * Is linked to `onFinishLoading` event in React.
      *
+     * @param view View that loaded the world.
      * @param s Message to send with event.
      */
-    @Override
-    public void worldWasLoaded(String s) {
-        Log.d(TAG,"World Loaded: " + s);
-        this.emitEvent("onFinishLoading", s);
+    public void worldWasLoaded(WikitudeView view, String s) {
+        WikitudeLog.d(TAG, "World Loaded: %s", s);
+        view.getPoiStore().onWorldLoaded();
+        this.emitEvent(view, "onFinishLoading", s);
     }
 
     /**
      * Event handler when world loading fails.
      * Is linked to `onFailLoading` event in React.
      *
+     * @param view View that failed to load the world.
      * @param error_code Error code of fail event.
      * @param desc Description of what happened.
      * @param fail_url The url of the world that failed to load.
      */
-    @Override
-    public void worldLoadFailed(int error_code, String desc, String fail_url) {
-        Log.e("Wikitude", "World loading failed for " + fail_url);
+    public void worldLoadFailed(WikitudeView view, int error_code, String desc, String fail_url) {
+        WikitudeLog.e(TAG, "World loading failed for %s", fail_url);
 
         String message = error_code + ": " + desc + " + " + fail_url;
-        this.emitEvent("onFailLoading", message);
+        this.emitEvent(view, "onFailLoading", message);
     }
 
     /**
      * Sends an event message to the React application.
+     * @param view View the event is sent to.
      * @param eventName Name of event. Ex. 'onFailLoading' or 'onJsonReceived'
      * @param message Message to send.
      */
-    public void emitEvent(String eventName, String message){
-        this.emitEvent("message", eventName, message);
+    public void emitEvent(WikitudeView view, String eventName, String message){
+        this.emitEvent(view, "message", eventName, message);
     }
 
     /**
      * Sends an event to the React application.
      *
+     * @param view View the event is sent to.
      * @param type Type of message. Ex. 'message' or 'image'
      * @param eventName Name of event. Ex. 'onFailLoading' or 'onJsonReceived'
      * @param message Message to send.
      */
-    public void emitEvent(String type, String eventName, String message){
+    public void emitEvent(WikitudeView view, String type, String eventName, String message){
         WritableMap event = Arguments.createMap();
         event.putString(type, message);
 
-        Log.d("Wikitude", "Sending '" + eventName + ":"+ type +"' event '" + message + "' to React");
+        WikitudeLog.v(TAG, "Sending '%s:%s' event '%s' to React", eventName, type, message);
 
+        this.emitEvent(view, eventName, event);
+    }
+
+    /**
+     * Sends an event with a structured payload to the React application.
+     *
+     * Events of views that are not mounted, Ex. prewarmed views, are dropped.
+     *
+     * @param view View the event is sent to.
+     * @param eventName Name of event. Ex. 'onQueueStats'
+     * @param event Payload of the event.
+     */
+    public void emitEvent(WikitudeView view, String eventName, WritableMap event){
+        int reactTag = view.getId();
+        if(this.views.get(reactTag) != view){
+            BridgeMetrics.count(BridgeMetrics.EVENTS_DROPPED, 1);
+            return;
+        }
+        long start = System.nanoTime();
         ReactContext reactContext = this.ctx;
         reactContext
                 .getJSModule(RCTEventEmitter.class)
-                .receiveEvent(this.wikitude.getId(), eventName, event);
+                .receiveEvent(reactTag, eventName, event);
+        BridgeMetrics.record(BridgeMetrics.EVENT_EMIT, start);
+        BridgeMetrics.count(BridgeMetrics.EVENTS_EMITTED, 1);
     }
 }
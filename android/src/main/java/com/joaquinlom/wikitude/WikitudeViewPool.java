@@ -0,0 +1,126 @@
+package com.joaquinlom.wikitude;
+
+import android.app.Activity;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of WikitudeViews that are created and loaded ahead of time.
+ *
+ * Prewarmed views have run onCreate/onPostCreate and loaded their world, and are parked paused
+ * and detached. React gets a parked view instead of a new one, and dropped views go back to
+ * the pool instead of being destroyed, so entering the AR screen again skips the SDK startup
+ * and the world load. The pool is empty and keeps no views until it is prewarmed.
+ * Only accessed on the main thread.
+ */
+class WikitudeViewPool {
+
+    private static final String TAG = "WikitudeViewPool";
+
+    private final WikitudeViewManager viewManager;
+    private final ArrayDeque<WikitudeView> parked = new ArrayDeque<>();
+    private int capacity = 0;
+
+    WikitudeViewPool(WikitudeViewManager viewManager){
+        this.viewManager = viewManager;
+    }
+
+    /**
+     * Creates views until the pool holds `count` views, and keeps up to `count` dropped views from now on.
+     * @param activity Activity the views are created in.
+     * @param licenseKey Wikitude license key.
+     * @param url World to load, as passed to the `url` prop.
+     * @param count Number of views to keep.
+     * @param options Startup options of the views, with the keys of the startup props. A view keeps
+     *                the options it was prewarmed with, so they should match the options of the component.
+     */
+    void prewarm(Activity activity, String licenseKey, String url, int count, @Nullable ReadableMap options){
+        this.capacity = Math.max(0, count);
+        this.trim();
+        while(this.parked.size() < this.capacity){
+            WikitudeView view = this.viewManager.newView(activity);
+            view.setLicenseKey(licenseKey);
+            if(options != null){
+                view.setStartupOptions(options);
+            }
+            view.setUrl(url);
+            view.startIfReady();
+            this.parked.add(view);
+        }
+        WikitudeLog.d(TAG, "Prewarmed %s views.", this.parked.size());
+    }
+
+    /**
+     * Takes a parked view created in the given activity.
+     * Views of another activity can't be shown anymore and are destroyed.
+     * @return WikitudeView A prewarmed view, or null if there is none.
+     */
+    @Nullable
+    WikitudeView acquire(Activity activity){
+        Iterator<WikitudeView> iterator = this.parked.iterator();
+        while(iterator.hasNext()){
+            WikitudeView view = iterator.next();
+            iterator.remove();
+            if(view.activity == activity){
+                return view;
+            }
+            destroy(view);
+        }
+        return null;
+    }
+
+    /**
+     * Parks a view that React dropped, if the pool has room for it.
+     * Only views React already detached are parked: the view hierarchy belongs to the UIManager,
+     * and a view dropped together with its parent is still attached to it.
+     * Per-session work of the view is stopped; its world stays loaded.
+     * @return boolean True if the view was parked, false if the caller should destroy it.
+     */
+    boolean release(WikitudeView view){
+        if(this.parked.size() >= this.capacity || view.getParent() != null){
+            return false;
+        }
+        view.onPause();
+        view.reset();
+        this.parked.add(view);
+        return true;
+    }
+
+    /**
+     * Destroys the parked views when their activity is destroyed. The capacity is kept, so
+     * views dropped in the recreated activity are parked again.
+     */
+    void onHostDestroy(){
+        while(!this.parked.isEmpty()){
+            destroy(this.parked.removeLast());
+        }
+    }
+
+    /**
+     * Destroys all parked views and disables the pool.
+     */
+    void clear(){
+        this.capacity = 0;
+        this.trim();
+    }
+
+    int size(){
+        return this.parked.size();
+    }
+
+    private void trim(){
+        while(this.parked.size() > this.capacity){
+            destroy(this.parked.removeLast());
+        }
+    }
+
+    private static void destroy(WikitudeView view){
+        view.onPause();
+        view.onDestroy();
+    }
+}
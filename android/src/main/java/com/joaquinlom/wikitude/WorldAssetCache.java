@@ -0,0 +1,646 @@
+package com.joaquinlom.wikitude;
+
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent cache of remote worlds in the app cache dir, so resuming AR or entering the
+ * AR screen again doesn't download the world again.
+ *
+ * Each world is stored under the hash of its URL, with the ETag (or an explicit version) it was
+ * downloaded with. Worlds are only stored by {@link #prefetch}; a warm world is loaded from
+ * local storage and revalidated in the background with If-None-Match. Every download goes into
+ * a new version directory, `<hash>-<version>`, and the world switches to it on its next load.
+ * Assets listed when prefetching are stored next to the world with the same relative paths;
+ * without assets, the world gets a `<base>` tag so its relative URLs still point to the server.
+ * Once the cache holds more than its byte budget, the least recently used worlds are evicted.
+ *
+ * A resolved world is pinned until the view releases it, so its version directory is neither
+ * evicted nor deleted while a view loads assets from it. Replaced versions are deleted once
+ * they are released.
+ *
+ * Only the executor touches the disk: reading the index, listing assets, downloads, deletes and
+ * saving the index. It holds the lock of the cache only to update the entries in memory, so
+ * {@link #resolve}, which runs on the main thread, never waits for disk or network work.
+ * Until the index is read, all worlds are cold.
+ */
+class WorldAssetCache {
+
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String TAG = "WorldAssetCache";
+    private static final String CACHE_DIR = "wikitude_worlds";
+    private static final String INDEX_FILE = "index.json";
+    private static final int TIMEOUT_MS = 15000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static WorldAssetCache instance;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Called on the executor thread when a prefetch finished.
+     */
+    interface Callback {
+        /**
+         * @param fromNetwork True if the world was downloaded, false if the cached copy was still current.
+         */
+        void onCached(boolean fromNetwork);
+
+        void onError(String message);
+    }
+
+    /**
+     * A cached world.
+     */
+    private static class Entry {
+        String url;
+        String dir;
+        String file;
+        String etag;
+        String version;
+        long bytes;
+        long lastUsed;
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("url", this.url);
+            json.put("dir", this.dir);
+            json.put("file", this.file);
+            json.put("etag", this.etag == null ? JSONObject.NULL : this.etag);
+            json.put("version", this.version == null ? JSONObject.NULL : this.version);
+            json.put("bytes", this.bytes);
+            json.put("lastUsed", this.lastUsed);
+            return json;
+        }
+
+        static Entry fromJSON(JSONObject json){
+            Entry entry = new Entry();
+            entry.url = json.optString("url");
+            entry.dir = json.optString("dir");
+            entry.file = json.optString("file");
+            entry.etag = json.isNull("etag") ? null : json.optString("etag");
+            entry.version = json.isNull("version") ? null : json.optString("version");
+            entry.bytes = json.optLong("bytes");
+            entry.lastUsed = json.optLong("lastUsed");
+            return entry;
+        }
+    }
+
+    private final File root;
+    // entries by URL, in access order: the first one is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Number of views using each version directory, by directory name
+    private final HashMap<String, Integer> pins = new HashMap<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long totalBytes = 0;
+
+    private WorldAssetCache(File root){
+        this.root = root;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+                deleteUnused();
+            }
+        });
+    }
+
+    /**
+     * Returns the world cache of the app. Its index is read in the background.
+     * @param cacheDir Cache directory of the app.
+     */
+    static synchronized WorldAssetCache get(File cacheDir){
+        if(instance == null){
+            instance = new WorldAssetCache(new File(cacheDir, CACHE_DIR));
+        }
+        return instance;
+    }
+
+    /**
+     * Changes the byte budget of the cache and evicts worlds over it in the background.
+     * @param maxBytes Maximum total size of the cached worlds, values below 1 keep the current value.
+     */
+    void configure(final long maxBytes){
+        if(maxBytes <= 0){
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WorldAssetCache.this){
+                    WorldAssetCache.this.maxBytes = maxBytes;
+                    evict(null);
+                }
+                deleteUnused();
+                save();
+            }
+        });
+    }
+
+    /**
+     * Resolves the URL a world should be loaded from and pins it until it is released.
+     * Only looks the world up in memory, so it can be called on the main thread.
+     * @param url Remote URL of the world.
+     * @return String `file://` URL of the cached world if it is warm, null otherwise.
+     */
+    @Nullable
+    synchronized String resolve(String url){
+        Entry entry = this.entries.get(url);
+        if(entry == null){
+            return null;
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        Integer count = this.pins.get(entry.dir);
+        this.pins.put(entry.dir, count == null ? 1 : count + 1);
+        return "file://" + new File(new File(this.root, entry.dir), entry.file).getAbsolutePath();
+    }
+
+    /**
+     * Releases a world returned by {@link #resolve}, once the view loads another world or is
+     * destroyed. A version that was replaced or evicted meanwhile is deleted in the background.
+     * @param fileUrl URL returned by resolve.
+     */
+    void release(String fileUrl){
+        String prefix = "file://" + this.root.getAbsolutePath() + File.separator;
+        if(!fileUrl.startsWith(prefix)){
+            return;
+        }
+        String path = fileUrl.substring(prefix.length());
+        int end = path.indexOf(File.separatorChar);
+        String dir = end < 0 ? path : path.substring(0, end);
+        synchronized (this){
+            Integer count = this.pins.get(dir);
+            if(count == null){
+                return;
+            }
+            if(count > 1){
+                this.pins.put(dir, count - 1);
+                return;
+            }
+            this.pins.remove(dir);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteUnused();
+            }
+        });
+    }
+
+    /**
+     * Downloads a world into the cache in the background. If the world is cached already, it is
+     * only downloaded again if its version or ETag changed.
+     * @param url Remote URL of the world, Ex. 'https://example.com/world/index.html'
+     * @param version Version of the world, null to rely on the ETag of the server.
+     * @param assets Paths of assets relative to the world to store with it, Ex. 'assets/model.wt3'
+     * @param callback Optional callback.
+     */
+    void prefetch(final String url, @Nullable final String version, final List<String> assets, @Nullable final Callback callback){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cache(url, version, assets, callback);
+            }
+        });
+    }
+
+    /**
+     * Checks in the background whether a cached world is still current, and downloads it again
+     * if it isn't. The new copy is used the next time the world is loaded. A world whose files
+     * are gone is removed from the cache.
+     * @param url Remote URL of the world.
+     */
+    void revalidate(final String url){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry;
+                String dir;
+                String file;
+                synchronized (WorldAssetCache.this){
+                    entry = entries.get(url);
+                    if(entry == null || entry.version != null){
+                        // explicitly versioned worlds only change through prefetch
+                        return;
+                    }
+                    dir = entry.dir;
+                    file = entry.file;
+                }
+                if(!new File(new File(root, dir), file).isFile()){
+                    synchronized (WorldAssetCache.this){
+                        if(entries.get(url) == entry){
+                            remove(entry);
+                        }
+                    }
+                    deleteUnused();
+                    save();
+                    return;
+                }
+                cache(url, null, listAssets(dir, file), null);
+            }
+        });
+    }
+
+    /**
+     * Deletes all cached worlds in the background. Worlds that are pinned are deleted once they are released.
+     */
+    void clear(){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WorldAssetCache.this){
+                    entries.clear();
+                    totalBytes = 0;
+                }
+                deleteUnused();
+                save();
+            }
+        });
+    }
+
+    /**
+     * Downloads a world and reports the result. Runs on the executor.
+     */
+    private void cache(String url, @Nullable String version, List<String> assets, @Nullable Callback callback){
+        try{
+            boolean fromNetwork = this.download(url, version, assets);
+            if(callback != null){
+                callback.onCached(fromNetwork);
+            }
+        }catch(IOException e){
+            WikitudeLog.e(TAG, "Error caching world %s: %s", url, e);
+            if(callback != null){
+                callback.onError(e.toString());
+            }
+        }
+    }
+
+    private boolean download(String url, @Nullable String version, List<String> assets) throws IOException {
+        String etag = null;
+        synchronized (this){
+            Entry cached = this.entries.get(url);
+            if(cached != null){
+                if(version != null && version.equals(cached.version)){
+                    return false;
+                }
+                if(version == null && cached.version == null){
+                    etag = cached.etag;
+                }
+            }
+        }
+
+        HttpURLConnection connection = open(url);
+        if(etag != null){
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        try{
+            int status = connection.getResponseCode();
+            if(status == HttpURLConnection.HTTP_NOT_MODIFIED){
+                return false;
+            }
+            if(status != HttpURLConnection.HTTP_OK){
+                throw new IOException("HTTP " + status);
+            }
+
+            String urlHash = hash(url);
+            File staging = new File(this.root, urlHash + ".tmp");
+            deleteRecursive(staging);
+            if(!staging.mkdirs()){
+                throw new IOException("Could not create " + staging);
+            }
+            String fileName = fileName(new URL(url));
+            File file = new File(staging, fileName);
+            long bytes;
+            if(assets.isEmpty()){
+                bytes = writeWithBase(connection.getInputStream(), file, url);
+            }else{
+                bytes = write(connection.getInputStream(), file);
+                for(String asset : assets){
+                    bytes += downloadAsset(new URL(new URL(url), asset), new File(staging, asset), staging);
+                }
+            }
+
+            Entry entry = new Entry();
+            entry.url = url;
+            entry.file = fileName;
+            entry.etag = connection.getHeaderField("ETag");
+            entry.version = version;
+            entry.bytes = bytes;
+            entry.lastUsed = System.currentTimeMillis();
+
+            // only the executor creates and deletes directories, so the name stays free
+            String dirName;
+            long stamp = System.currentTimeMillis();
+            do{
+                dirName = urlHash + "-" + Long.toString(stamp++, 36);
+            }while(new File(this.root, dirName).exists());
+            File target = new File(this.root, dirName);
+            if(!staging.renameTo(target)){
+                deleteRecursive(staging);
+                throw new IOException("Could not move " + staging + " to " + target);
+            }
+            entry.dir = dirName;
+
+            synchronized (this){
+                Entry previous = this.entries.remove(url);
+                if(previous != null){
+                    this.totalBytes -= previous.bytes;
+                }
+                this.entries.put(url, entry);
+                this.totalBytes += bytes;
+                this.evict(entry);
+            }
+            // the previous version is deleted unless a view still loads assets from it
+            this.deleteUnused();
+            this.save();
+            return true;
+        }finally {
+            connection.disconnect();
+        }
+    }
+
+    private static long downloadAsset(URL url, File file, File dir) throws IOException {
+        if(!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)){
+            throw new IOException("Asset outside of the world: " + url);
+        }
+        File parent = file.getParentFile();
+        if(parent != null && !parent.isDirectory() && !parent.mkdirs()){
+            throw new IOException("Could not create " + parent);
+        }
+        HttpURLConnection connection = open(url.toString());
+        try{
+            int status = connection.getResponseCode();
+            if(status != HttpURLConnection.HTTP_OK){
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            return write(connection.getInputStream(), file);
+        }finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        return connection;
+    }
+
+    /**
+     * Streams a response into a file through a FileChannel.
+     * @return long Number of bytes written.
+     */
+    private static long write(InputStream input, File file) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(input);
+        FileOutputStream output = new FileOutputStream(file);
+        try{
+            FileChannel channel = output.getChannel();
+            long position = 0;
+            long read;
+            while((read = channel.transferFrom(source, position, 1 << 20)) > 0){
+                position += read;
+            }
+            return position;
+        }finally {
+            output.close();
+            source.close();
+        }
+    }
+
+    /**
+     * Writes a world HTML file with a `<base>` tag, so its relative URLs resolve against the server.
+     * @return long Number of bytes written.
+     */
+    private static long writeWithBase(InputStream input, File file, String url) throws IOException {
+        String html;
+        try{
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int read;
+            while((read = input.read(buffer)) != -1){
+                bytes.write(buffer, 0, read);
+            }
+            html = new String(bytes.toByteArray(), UTF_8);
+        }finally {
+            input.close();
+        }
+        String base = "<base href=\"" + url.replace("\"", "&quot;") + "\">";
+        int head = html.toLowerCase(Locale.US).indexOf("<head");
+        int insert = head < 0 ? -1 : html.indexOf('>', head);
+        html = insert < 0 ? base + html : html.substring(0, insert + 1) + base + html.substring(insert + 1);
+
+        byte[] data = html.getBytes(UTF_8);
+        FileOutputStream output = new FileOutputStream(file);
+        try{
+            output.write(data);
+        }finally {
+            output.close();
+        }
+        return data.length;
+    }
+
+    /**
+     * Lists the assets stored with a world, as paths relative to its directory.
+     * @param dir Version directory of the world.
+     * @param file File name of the world, which isn't an asset.
+     */
+    private List<String> listAssets(String dir, String file){
+        List<String> assets = new ArrayList<>();
+        collect(new File(this.root, dir), "", file, assets);
+        return assets;
+    }
+
+    private static void collect(File dir, String prefix, String skip, List<String> assets){
+        File[] children = dir.listFiles();
+        if(children == null){
+            return;
+        }
+        for(File child : children){
+            String path = prefix + child.getName();
+            if(child.isDirectory()){
+                collect(child, path + "/", skip, assets);
+            }else if(!path.equals(skip)){
+                assets.add(path);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used worlds until the cache is within its budget. Pinned
+     * worlds are kept, a view loads from them. Only removes the entries, the directories are
+     * deleted by {@link #deleteUnused}. Must be called while holding the lock of the cache.
+     * @param keep Entry that is never evicted, Ex. the one just added.
+     */
+    private void evict(@Nullable Entry keep){
+        for(Entry entry : new ArrayList<>(this.entries.values())){
+            if(this.totalBytes <= this.maxBytes){
+                return;
+            }
+            if(entry != keep && !this.pins.containsKey(entry.dir)){
+                WikitudeLog.d(TAG, "Evicting world %s", entry.url);
+                this.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry. Must be called while holding the lock of the cache.
+     */
+    private void remove(Entry entry){
+        this.entries.remove(entry.url);
+        this.totalBytes -= entry.bytes;
+    }
+
+    /**
+     * Deletes the directories that neither belong to an entry nor are pinned, Ex. replaced
+     * versions, evicted worlds and interrupted downloads. Runs on the executor, outside the lock.
+     */
+    private void deleteUnused(){
+        File[] children = this.root.listFiles();
+        if(children == null){
+            return;
+        }
+        HashSet<String> used = new HashSet<>();
+        synchronized (this){
+            for(Entry entry : this.entries.values()){
+                used.add(entry.dir);
+            }
+            used.addAll(this.pins.keySet());
+        }
+        for(File child : children){
+            if(child.isDirectory() && !used.contains(child.getName())){
+                deleteRecursive(child);
+            }
+        }
+    }
+
+    /**
+     * Reads the index. Runs on the executor, before any other task.
+     */
+    private void restore(){
+        File index = new File(this.root, INDEX_FILE);
+        if(!index.isFile()){
+            return;
+        }
+        try{
+            FileInputStream input = new FileInputStream(index);
+            byte[] data;
+            try{
+                data = new byte[(int) input.getChannel().size()];
+                int offset = 0;
+                int read;
+                while(offset < data.length && (read = input.read(data, offset, data.length - offset)) != -1){
+                    offset += read;
+                }
+            }finally {
+                input.close();
+            }
+            JSONArray array = new JSONArray(new String(data, UTF_8));
+            // the index is saved least recently used first
+            List<Entry> restored = new ArrayList<>();
+            for(int i = 0; i < array.length(); i++){
+                Entry entry = Entry.fromJSON(array.getJSONObject(i));
+                if(new File(new File(this.root, entry.dir), entry.file).isFile()){
+                    restored.add(entry);
+                }
+            }
+            synchronized (this){
+                for(Entry entry : restored){
+                    this.entries.put(entry.url, entry);
+                    this.totalBytes += entry.bytes;
+                }
+            }
+        }catch(IOException | JSONException e){
+            WikitudeLog.e(TAG, "Error reading the world cache index: %s", e);
+        }
+    }
+
+    /**
+     * Writes the index. Runs on the executor, outside the lock.
+     */
+    private void save(){
+        if(!this.root.isDirectory() && !this.root.mkdirs()){
+            WikitudeLog.e(TAG, "Could not create %s", this.root);
+            return;
+        }
+        try{
+            JSONArray array = new JSONArray();
+            synchronized (this){
+                for(Entry entry : this.entries.values()){
+                    array.put(entry.toJSON());
+                }
+            }
+            File temp = new File(this.root, INDEX_FILE + ".tmp");
+            FileOutputStream output = new FileOutputStream(temp);
+            try{
+                output.write(array.toString().getBytes(UTF_8));
+            }finally {
+                output.close();
+            }
+            if(!temp.renameTo(new File(this.root, INDEX_FILE))){
+                WikitudeLog.e(TAG, "Could not save the world cache index.");
+            }
+        }catch(IOException | JSONException e){
+            WikitudeLog.e(TAG, "Error saving the world cache index: %s", e);
+        }
+    }
+
+    private static String fileName(URL url){
+        String path = url.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.isEmpty() ? "index.html" : name;
+    }
+
+    private static String hash(String value){
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(value.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for(byte b : bytes){
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        }catch(NoSuchAlgorithmException e){
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    static void deleteRecursive(File file){
+        File[] children = file.listFiles();
+        if(children != null){
+            for(File child : children){
+                deleteRecursive(child);
+            }
+        }
+        if(file.exists() && !file.delete()){
+            WikitudeLog.w(TAG, "Could not delete %s", file);
+        }
+    }
+}
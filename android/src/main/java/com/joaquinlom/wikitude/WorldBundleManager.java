@@ -0,0 +1,347 @@
+package com.joaquinlom.wikitude;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Stages zipped worlds ("bundles") in app storage, so they can be loaded from `bundle://` URLs.
+ *
+ * A bundle is downloaded (or copied from a local file) on a background thread, its SHA-256 is
+ * checked, and it is unpacked into a staging directory. Only a complete, verified bundle is
+ * swapped in, by renaming the staging directory to its version and then atomically replacing
+ * the pointer to the current version. Views never see a partially downloaded world.
+ *
+ * Layout: `files/wikitude_bundles/<name>/<version>/...` and `files/wikitude_bundles/<name>/current`.
+ */
+class WorldBundleManager {
+
+    static final String SCHEME = "bundle";
+
+    private static final String TAG = "WorldBundleManager";
+    private static final String BUNDLE_DIR = "wikitude_bundles";
+    private static final String CURRENT_FILE = "current";
+    private static final String DEFAULT_ENTRY = "index.html";
+    private static final int TIMEOUT_MS = 15000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static WorldBundleManager instance;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Called on the executor thread when staging finished.
+     */
+    interface Callback {
+        /**
+         * @param version Version directory of the staged bundle.
+         * @param url `file://` URL of the entry file of the bundle.
+         * @param changed False if this version was already the current one.
+         */
+        void onStaged(String version, String url, boolean changed);
+
+        void onError(String message);
+    }
+
+    private final File root;
+    // current version by bundle name, read from disk on first use
+    private final HashMap<String, String> current = new HashMap<>();
+
+    private WorldBundleManager(File root){
+        this.root = root;
+    }
+
+    /**
+     * Returns the bundle manager of the app.
+     * @param filesDir Files directory of the app.
+     */
+    static synchronized WorldBundleManager get(File filesDir){
+        if(instance == null){
+            instance = new WorldBundleManager(new File(filesDir, BUNDLE_DIR));
+        }
+        return instance;
+    }
+
+    /**
+     * Stages a bundle in the background.
+     * @param name Name of the bundle, the host of its `bundle://` URLs.
+     * @param source URL of the zip: http(s)://, file:// or an absolute path.
+     * @param sha256 Expected SHA-256 of the zip as hex, null to skip the check.
+     * @param callback Callback.
+     */
+    void stage(final String name, final String source, @Nullable final String sha256, final Callback callback){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    stageNow(name, source, sha256, callback);
+                }catch(IOException e){
+                    WikitudeLog.e(TAG, "Error staging bundle %s: %s", name, e);
+                    callback.onError(e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Resolves a `bundle://<name>/<path>` URL to the staged file.
+     * @param url Bundle URL. Without a path, the entry is `index.html`.
+     * @return String `file://` URL of the staged file, null if the bundle isn't staged.
+     */
+    @Nullable
+    synchronized String resolve(String url){
+        Uri uri = Uri.parse(url);
+        String name = uri.getHost();
+        if(name == null || !isValidName(name)){
+            return null;
+        }
+        String version = this.currentVersion(name);
+        if(version == null){
+            return null;
+        }
+        String path = uri.getPath();
+        if(path == null || path.equals("") || path.equals("/")){
+            path = DEFAULT_ENTRY;
+        }
+        File file = new File(new File(new File(this.root, name), version), path);
+        return file.isFile() ? "file://" + file.getAbsolutePath() : null;
+    }
+
+    private void stageNow(String name, String source, @Nullable String sha256, Callback callback) throws IOException {
+        if(!isValidName(name)){
+            throw new IOException("Invalid bundle name " + name);
+        }
+        File bundleDir = new File(this.root, name);
+        if(!bundleDir.isDirectory() && !bundleDir.mkdirs()){
+            throw new IOException("Could not create " + bundleDir);
+        }
+
+        // download into a temporary file, hashing while writing
+        File zip = new File(bundleDir, ".download");
+        String hash = copy(source, zip);
+        if(sha256 != null && !sha256.equalsIgnoreCase(hash)){
+            zip.delete();
+            throw new IOException("SHA-256 mismatch for bundle " + name + ": expected " + sha256 + ", got " + hash);
+        }
+
+        String version = hash.substring(0, 16);
+        File versionDir = new File(bundleDir, version);
+        boolean changed;
+        synchronized (this){
+            changed = !version.equals(this.currentVersion(name));
+        }
+        // a version directory is only created complete from this zip, so an existing one is reused,
+        // Ex. when rolling back to the previous version that views may still be loading from
+        if(!versionDir.isDirectory()){
+            File staging = new File(bundleDir, ".staging");
+            WorldAssetCache.deleteRecursive(staging);
+            try{
+                unzip(zip, staging);
+            }catch(IOException e){
+                WorldAssetCache.deleteRecursive(staging);
+                throw e;
+            }
+            if(!staging.renameTo(versionDir)){
+                WorldAssetCache.deleteRecursive(staging);
+                throw new IOException("Could not move " + staging + " to " + versionDir);
+            }
+        }
+        if(changed){
+            this.swap(name, bundleDir, version);
+        }
+        zip.delete();
+
+        File entry = new File(versionDir, DEFAULT_ENTRY);
+        callback.onStaged(version, "file://" + entry.getAbsolutePath(), changed);
+    }
+
+    /**
+     * Points the bundle at a new version by renaming a pointer file over the old one,
+     * then deletes versions older than the previous one.
+     */
+    private void swap(String name, File bundleDir, String version) throws IOException {
+        String previous;
+        synchronized (this){
+            previous = this.currentVersion(name);
+            File temp = new File(bundleDir, CURRENT_FILE + ".tmp");
+            FileOutputStream output = new FileOutputStream(temp);
+            try{
+                output.write(version.getBytes(UTF_8));
+                output.getFD().sync();
+            }finally {
+                output.close();
+            }
+            if(!temp.renameTo(new File(bundleDir, CURRENT_FILE))){
+                throw new IOException("Could not update the current version of bundle " + name);
+            }
+            this.current.put(name, version);
+        }
+        // the previous version is kept, views may still load files from it
+        File[] children = bundleDir.listFiles();
+        if(children != null){
+            for(File child : children){
+                String childName = child.getName();
+                if(child.isDirectory() && !childName.startsWith(".")
+                        && !childName.equals(version) && !childName.equals(previous)){
+                    WorldAssetCache.deleteRecursive(child);
+                }
+            }
+        }
+        WikitudeLog.d(TAG, "Bundle %s is now at version %s", name, version);
+    }
+
+    @Nullable
+    private String currentVersion(String name){
+        if(this.current.containsKey(name)){
+            return this.current.get(name);
+        }
+        String version = null;
+        File file = new File(new File(this.root, name), CURRENT_FILE);
+        if(file.isFile()){
+            try{
+                FileInputStream input = new FileInputStream(file);
+                try{
+                    byte[] data = new byte[(int) Math.min(64, input.getChannel().size())];
+                    int read = input.read(data);
+                    version = read > 0 ? new String(data, 0, read, UTF_8).trim() : null;
+                }finally {
+                    input.close();
+                }
+            }catch(IOException e){
+                WikitudeLog.e(TAG, "Error reading the current version of bundle %s: %s", name, e);
+            }
+        }
+        this.current.put(name, version);
+        return version;
+    }
+
+    /**
+     * Copies a local or remote file, computing its SHA-256 on the way.
+     * @return String SHA-256 of the file as lowercase hex.
+     */
+    private static String copy(String source, File target) throws IOException {
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            throw new IOException(e.toString());
+        }
+        HttpURLConnection connection = null;
+        InputStream input;
+        if(source.startsWith("http://") || source.startsWith("https://")){
+            connection = (HttpURLConnection) new URL(source).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            int status = connection.getResponseCode();
+            if(status != HttpURLConnection.HTTP_OK){
+                connection.disconnect();
+                throw new IOException("HTTP " + status + " for " + source);
+            }
+            input = connection.getInputStream();
+        }else{
+            input = new FileInputStream(source.startsWith("file://") ? source.substring("file://".length()) : source);
+        }
+
+        ReadableByteChannel in = Channels.newChannel(input);
+        try{
+            FileOutputStream output = new FileOutputStream(target);
+            try{
+                FileChannel out = output.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while(in.read(buffer) != -1){
+                    buffer.flip();
+                    digest.update(buffer.array(), 0, buffer.limit());
+                    while(buffer.hasRemaining()){
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                output.getFD().sync();
+            }finally {
+                output.close();
+            }
+        }finally {
+            in.close();
+            if(connection != null){
+                connection.disconnect();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Unpacks a zip, streaming every entry into its file through a FileChannel.
+     */
+    private static void unzip(File zip, File target) throws IOException {
+        if(!target.mkdirs()){
+            throw new IOException("Could not create " + target);
+        }
+        String targetPath = target.getCanonicalPath() + File.separator;
+        ZipInputStream input = new ZipInputStream(new FileInputStream(zip));
+        try{
+            ReadableByteChannel in = Channels.newChannel(input);
+            ZipEntry entry;
+            while((entry = input.getNextEntry()) != null){
+                File file = new File(target, entry.getName());
+                if(!file.getCanonicalPath().startsWith(targetPath)){
+                    throw new IOException("Bundle entry outside of the bundle: " + entry.getName());
+                }
+                if(entry.isDirectory()){
+                    if(!file.isDirectory() && !file.mkdirs()){
+                        throw new IOException("Could not create " + file);
+                    }
+                    continue;
+                }
+                File parent = file.getParentFile();
+                if(parent != null && !parent.isDirectory() && !parent.mkdirs()){
+                    throw new IOException("Could not create " + parent);
+                }
+                FileOutputStream output = new FileOutputStream(file);
+                try{
+                    FileChannel out = output.getChannel();
+                    long position = 0;
+                    long read;
+                    while((read = out.transferFrom(in, position, BUFFER_SIZE)) > 0){
+                        position += read;
+                    }
+                }finally {
+                    output.close();
+                }
+            }
+        }finally {
+            input.close();
+        }
+    }
+
+    private static boolean isValidName(String name){
+        return !name.isEmpty() && !name.startsWith(".") && name.indexOf('/') < 0 && name.indexOf('\\') < 0;
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
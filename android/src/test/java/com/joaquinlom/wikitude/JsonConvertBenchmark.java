@@ -0,0 +1,204 @@
+package com.joaquinlom.wikitude;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the single pass JSON to WritableMap conversion with the previous one, on POI
+ * messages of 1 to 500 KB like the world sends them. The previous path also stringified the
+ * map before emitting it, so that is part of its time.
+ *
+ * Also compares the React to JSON conversions on coordinate arrays, like the arguments of
+ * callJSFunction: the previous reactToJSON with getInt and a catch, the current reactToJSON,
+ * and the streaming reactToJSONString. All of them include building the JSON string.
+ *
+ * Runs on the JVM with Java maps instead of native ones, so the times are relative:
+ * the lookups and number handling are measured, not the JNI cost of the native maps.
+ * Skipped unless the tests are run with ./gradlew test -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, shadows = ShadowArguments.class)
+public class JsonConvertBenchmark {
+
+    private static final int[] PAYLOAD_KB = {1, 10, 100, 500};
+    private static final int[] COORDINATES = {1000, 10000};
+    // Roughly the same amount of work for every array size
+    private static final int COORDINATES_PER_RUN = 2000000;
+    // Roughly the same amount of work for every payload size
+    private static final long BYTES_PER_RUN = 20L * 1024 * 1024;
+    // Time every conversion runs before it is measured, so the JIT compiled it
+    private static final long WARMUP_NANOS = 2L * 1000 * 1000 * 1000;
+    private static final int MEASURED_RUNS = 5;
+
+    // The results of the conversions end up here, so the JIT can't remove them
+    private static volatile long sink;
+
+    /**
+     * A conversion to measure.
+     */
+    interface Conversion {
+        /**
+         * @return int A value depending on the result of the conversion.
+         */
+        int run() throws JSONException;
+    }
+
+    @Before
+    public void onlyWhenEnabled(){
+        assumeTrue("Run with ./gradlew test -Pbenchmark", Boolean.getBoolean("wikitude.benchmark"));
+    }
+
+    @Test
+    public void compareWithLegacyConversion() throws JSONException {
+        for(int kb : PAYLOAD_KB){
+            final JSONObject payload = poiPayload(kb * 1024);
+            int iterations = (int) Math.max(10, BYTES_PER_RUN / (kb * 1024));
+
+            // both conversions have to produce the same maps for the times to be comparable
+            assertEquals(LegacyJsonConvert.jsonToReact(payload).getArray("pois").size(),
+                    JsonConvert.jsonToReact(payload).getArray("pois").size());
+
+            long legacy = measure(new Conversion() {
+                @Override
+                public int run() throws JSONException {
+                    return LegacyJsonConvert.jsonToReact(payload).toString().length();
+                }
+            }, iterations);
+            long current = measure(new Conversion() {
+                @Override
+                public int run() throws JSONException {
+                    return JsonConvert.jsonToReact(payload).getArray("pois").size();
+                }
+            }, iterations);
+            report("jsonToReact", kb + " KB", legacy, current);
+        }
+    }
+
+    @Test
+    public void compareReactToJSON() throws JSONException, IOException {
+        for(int count : COORDINATES){
+            final JavaOnlyArray coordinates = coordinates(count);
+            int iterations = Math.max(10, COORDINATES_PER_RUN / count);
+
+            assertEquals(LegacyJsonConvert.reactToJSON(coordinates).length(),
+                    new JSONArray(JsonConvert.reactToJSONString(coordinates)).length());
+
+            long legacy = measure(new Conversion() {
+                @Override
+                public int run() throws JSONException {
+                    return LegacyJsonConvert.reactToJSON(coordinates).toString().length();
+                }
+            }, iterations);
+            long current = measure(new Conversion() {
+                @Override
+                public int run() throws JSONException {
+                    return JsonConvert.reactToJSON(coordinates).toString().length();
+                }
+            }, iterations);
+            long streamed = measure(new Conversion() {
+                @Override
+                public int run() throws JSONException {
+                    try{
+                        return JsonConvert.reactToJSONString(coordinates).length();
+                    }catch(IOException e){
+                        throw new JSONException(e.toString());
+                    }
+                }
+            }, iterations);
+            report("reactToJSON", count + " coords", legacy, current);
+            report("reactToJSONString", count + " coords", legacy, streamed);
+        }
+    }
+
+    /**
+     * Warms the conversion up, then times it in separate runs.
+     * @return long Median nanoseconds per conversion.
+     */
+    static long measure(Conversion conversion, int iterations) throws JSONException {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while(System.nanoTime() < warmupEnd){
+            run(conversion, iterations);
+        }
+        long[] runs = new long[MEASURED_RUNS];
+        for(int i = 0; i < MEASURED_RUNS; i++){
+            long start = System.nanoTime();
+            run(conversion, iterations);
+            runs[i] = (System.nanoTime() - start) / iterations;
+        }
+        Arrays.sort(runs);
+        return runs[MEASURED_RUNS / 2];
+    }
+
+    private static void run(Conversion conversion, int iterations) throws JSONException {
+        long result = 0;
+        for(int i = 0; i < iterations; i++){
+            result += conversion.run();
+        }
+        sink += result;
+    }
+
+    static void report(String name, String payload, long legacyNanos, long currentNanos){
+        System.out.println(String.format(Locale.US,
+                "%s %-10s: legacy %9.1f us/op, current %9.1f us/op, %.2fx",
+                name, payload, legacyNanos / 1e3, currentNanos / 1e3, (double) legacyNanos / currentNanos));
+    }
+
+    /**
+     * Builds an array of [latitude, longitude] pairs, like a route or a polygon.
+     */
+    static JavaOnlyArray coordinates(int count){
+        JavaOnlyArray coordinates = new JavaOnlyArray();
+        for(int i = 0; i < count; i++){
+            if(i % 10 == 0){
+                // some integral values, like the rounded ones apps often send
+                coordinates.pushArray(JavaOnlyArray.of((double) (i % 90), (double) (i % 180)));
+            }else{
+                coordinates.pushArray(JavaOnlyArray.of(47.77317 + i * 0.000123, 13.069929 - i * 0.000123));
+            }
+        }
+        return coordinates;
+    }
+
+    /**
+     * Builds a POI message of about the given size.
+     */
+    static JSONObject poiPayload(int bytes) throws JSONException {
+        JSONArray pois = new JSONArray();
+        JSONObject payload = new JSONObject();
+        payload.put("type", "pois");
+        payload.put("pois", pois);
+        int size = 0;
+        for(int id = 0; size < bytes; id++){
+            JSONObject poi = new JSONObject();
+            poi.put("id", id);
+            poi.put("name", "POI " + id);
+            poi.put("description", "Point of interest number " + id);
+            poi.put("latitude", 47.77317 + id * 0.0001);
+            poi.put("longitude", 13.069929 - id * 0.0001);
+            poi.put("altitude", 320.5);
+            poi.put("distance", id * 12);
+            poi.put("visible", id % 2 == 0);
+            poi.put("createdAt", 1600000000000L + id);
+            poi.put("category", JSONObject.NULL);
+            pois.put(poi);
+            size += poi.toString().length() + 1;
+        }
+        return payload;
+    }
+}
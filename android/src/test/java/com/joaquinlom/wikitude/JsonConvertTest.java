@@ -0,0 +1,111 @@
+package com.joaquinlom.wikitude;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * React sends every number as a double; integral values have to reach the world as integers,
+ * all other values unchanged.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, shadows = ShadowArguments.class)
+public class JsonConvertTest {
+
+    // 2^53, the first integer a double can't tell apart from its successor
+    private static final double TWO_POW_53 = 9007199254740992d;
+
+    @Test
+    public void isIntegral() {
+        assertTrue(JsonConvert.isIntegral(0));
+        assertTrue(JsonConvert.isIntegral(42));
+        assertTrue(JsonConvert.isIntegral(-3));
+        assertTrue(JsonConvert.isIntegral(TWO_POW_53 - 1));
+        assertTrue(JsonConvert.isIntegral(-(TWO_POW_53 - 1)));
+        assertFalse(JsonConvert.isIntegral(1.5));
+        assertFalse(JsonConvert.isIntegral(-0.25));
+        assertFalse(JsonConvert.isIntegral(47.77317));
+        assertFalse(JsonConvert.isIntegral(TWO_POW_53));
+        assertFalse(JsonConvert.isIntegral(1e20));
+        assertFalse(JsonConvert.isIntegral(Double.NaN));
+        assertFalse(JsonConvert.isIntegral(Double.POSITIVE_INFINITY));
+        assertFalse(JsonConvert.isIntegral(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void writesIntegralDoublesAsIntegers() throws Exception {
+        assertEquals("[0,42,-3,9007199254740991]",
+                JsonConvert.reactToJSONString(JavaOnlyArray.of(0d, 42d, -3d, TWO_POW_53 - 1)));
+        assertEquals("{\"id\":7}", JsonConvert.reactToJSONString(JavaOnlyMap.of("id", 7d)));
+    }
+
+    @Test
+    public void writesFractionalValuesUnchanged() throws Exception {
+        assertEquals("[1.5,-0.25,47.77317]",
+                JsonConvert.reactToJSONString(JavaOnlyArray.of(1.5, -0.25, 47.77317)));
+        assertEquals("{\"latitude\":13.069929}",
+                JsonConvert.reactToJSONString(JavaOnlyMap.of("latitude", 13.069929)));
+    }
+
+    @Test
+    public void writesValuesAbove2Pow53AsDoubles() throws Exception {
+        JSONArray array = new JSONArray(JsonConvert.reactToJSONString(JavaOnlyArray.of(TWO_POW_53 + 2, 1e20)));
+        assertTrue(array.get(0) instanceof Double);
+        assertEquals(TWO_POW_53 + 2, array.getDouble(0), 0);
+        assertEquals(1e20, array.getDouble(1), 0);
+    }
+
+    @Test
+    public void writesNonFiniteValuesAsNull() throws Exception {
+        assertEquals("[null,null,null]", JsonConvert.reactToJSONString(
+                JavaOnlyArray.of(Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY)));
+        assertEquals("{\"value\":null}", JsonConvert.reactToJSONString(JavaOnlyMap.of("value", Double.NaN)));
+    }
+
+    @Test
+    public void writesNestedArraysAndMaps() throws Exception {
+        JavaOnlyMap map = JavaOnlyMap.of("pois", JavaOnlyArray.of(
+                JavaOnlyMap.of("coordinates", JavaOnlyArray.of(JavaOnlyArray.of(47.5, 13d), JavaOnlyArray.of(1d, 2.5))),
+                JavaOnlyMap.of("visible", true),
+                null));
+        assertEquals("{\"pois\":[{\"coordinates\":[[47.5,13],[1,2.5]]},{\"visible\":true},null]}",
+                JsonConvert.reactToJSONString(map));
+    }
+
+    @Test
+    public void reactToJSONKeepsNumberTypes() throws Exception {
+        JSONObject json = JsonConvert.reactToJSON(JavaOnlyMap.of("value", JavaOnlyArray.of(
+                42d, 1.5, TWO_POW_53 + 2, Double.NaN, JavaOnlyMap.of("nested", JavaOnlyArray.of(3d, 0.5)))));
+        JSONArray array = json.getJSONArray("value");
+        assertEquals(42L, array.get(0));
+        assertEquals(1.5, array.get(1));
+        assertEquals(TWO_POW_53 + 2, array.get(2));
+        assertEquals(JSONObject.NULL, array.get(3));
+        JSONArray nested = array.getJSONObject(4).getJSONArray("nested");
+        assertEquals(3L, nested.get(0));
+        assertEquals(0.5, nested.get(1));
+    }
+
+    @Test
+    public void jsonToReactKeepsLongs() throws Exception {
+        // the previous conversion truncated longs like timestamps to ints
+        long createdAt = 1600000000000L;
+        JSONObject json = new JSONObject();
+        json.put("createdAt", createdAt);
+        json.put("pois", new JSONArray().put(new JSONObject().put("createdAt", createdAt + 1)));
+        WritableMap map = JsonConvert.jsonToReact(json);
+        assertEquals(createdAt, map.getDouble("createdAt"), 0);
+        assertEquals(createdAt + 1, map.getArray("pois").getMap(0).getDouble("createdAt"), 0);
+    }
+}
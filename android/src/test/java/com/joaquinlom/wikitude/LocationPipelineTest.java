@@ -0,0 +1,104 @@
+package com.joaquinlom.wikitude;
+
+import android.os.HandlerThread;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A view that is parked or destroyed drops the location it had pending. The pipeline has to
+ * keep delivering the locations that are injected afterwards.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LocationPipelineTest {
+
+    private HandlerThread thread;
+    private MainThreadScheduler scheduler;
+    private LocationPipeline pipeline;
+    private final List<double[]> applied = new ArrayList<>();
+
+    @Before
+    public void setUp(){
+        this.thread = new HandlerThread("LocationPipelineTest");
+        this.thread.start();
+        // only the location lane is used, which doesn't need the view
+        this.scheduler = new MainThreadScheduler(null);
+        this.pipeline = new LocationPipeline(this.scheduler, new LocationPipeline.Target() {
+            @Override
+            public void injectLocation(double lat, double lon, double alt, float accuracy) {
+                applied.add(new double[]{lat, lon});
+            }
+        }, this.thread.getLooper());
+    }
+
+    @After
+    public void tearDown(){
+        this.thread.quit();
+    }
+
+    @Test
+    public void deliversLocationsAfterThePendingOneWasCleared(){
+        this.pipeline.submit(47, 13, Double.NaN, 5);
+        this.idlePipeline();
+        // parked before the next frame applied the location, like WikitudeView.reset()
+        this.scheduler.clear();
+        this.pipeline.stop();
+        this.idleFrames();
+        assertEquals(0, this.applied.size());
+
+        this.pipeline.submit(48, 14, Double.NaN, 5);
+        this.idlePipeline();
+        this.idleFrames();
+        assertEquals(1, this.applied.size());
+        assertEquals(48, this.applied.get(0)[0], 0);
+        assertEquals(14, this.applied.get(0)[1], 0);
+    }
+
+    @Test
+    public void deliversThrottledLocationsAfterStop(){
+        this.pipeline.configure(JavaOnlyMap.of("minInterval", 1000d));
+        this.pipeline.submit(47, 13, Double.NaN, 5);
+        this.idlePipeline();
+        this.idleFrames();
+        assertEquals(1, this.applied.size());
+
+        // throttled, waits for the end of the interval
+        this.pipeline.submit(48, 14, Double.NaN, 5);
+        this.idlePipeline();
+        this.pipeline.stop();
+        this.idlePipeline();
+
+        this.pipeline.submit(49, 15, Double.NaN, 5);
+        this.idlePipeline();
+        ShadowSystemClock.advanceBy(2, TimeUnit.SECONDS);
+        this.idlePipeline();
+        this.idleFrames();
+        assertEquals(2, this.applied.size());
+        assertEquals(49, this.applied.get(1)[0], 0);
+    }
+
+    private void idlePipeline(){
+        ShadowLooper looper = Shadow.extract(this.thread.getLooper());
+        looper.idle();
+    }
+
+    private void idleFrames(){
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+    }
+}
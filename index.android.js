@@ -42,9 +42,8 @@ class WikitudeView extends React.Component {
     }
     console.log('didmount Wikitude SDK index.js');
     this.setState({isRunning: true});
-    setTimeout(() => {
-      this.resumeRendering();
-    }, 500);
+    // the view defers resuming until it is created, no need to wait
+    this.resumeRendering();
   }
   componentWillUnmount() {
     this.setState({isRunning: false});
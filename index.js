@@ -1,6 +1,5 @@
 import {
   NativeModules,
-  requireNativeComponent,
   findNodeHandle,
   UIManager,
   Platform,
@@ -8,6 +7,31 @@ import {
 import React from 'react';
 import PropTypes from 'prop-types';
 import NativeFunctions from './res/functionMaps';
+import WKTView, {Commands} from './res/WikitudeViewNativeComponent';
+
+/**
+ * The startup options are applied when the SDK starts and can't change on a
+ * running view, so they are part of the key of the native view: a change
+ * mounts a new one.
+ */
+function startupKey(props) {
+  return [
+    props.features ? props.features.join(',') : '',
+    props.feature || 0,
+    props.cameraResolution || '',
+    props.cameraPosition || '',
+    props.focusMode || '',
+    props.camera2Enabled == null ? '' : props.camera2Enabled,
+  ].join('|');
+}
+
+/**
+ * Synchronous native methods are called through JSI, which isn't there when
+ * debugging remotely in Chrome.
+ */
+function canCallSync() {
+  return global.nativeCallSyncHook != null;
+}
 
 /**
  * Base class for using the wikitude SDK.
@@ -36,22 +60,42 @@ class WikitudeView extends React.Component {
   async componentDidMount() {
     console.log('didmount Wikitude SDK index.js');
 
-    this.resumeRendering();
+    // with isRunning={false} the view stays paused until the prop changes
+    if (this.props.isRunning !== false) {
+      this.resumeRendering();
+    }
   }
 
   componentWillUnmount() {
     console.log('RN-SDK: componentWillUnmount');
   }
 
-  componentDidUpdate() {
+  componentDidUpdate(prevProps) {
     console.log('RN-SDK: ComponentDidUpdate');
     console.log('RN-SDK: Value of URL: ', this.props.url);
+
+    // new startup options mount a new native view, which has to be resumed like on mount
+    if (
+      startupKey(prevProps) !== startupKey(this.props) &&
+      this.props.isRunning !== false
+    ) {
+      this.resumeRendering();
+    }
   }
 
-  // implemented in Java with @ReactMethod tag
-  // TODO: Not implemented in java, needs package export
+  /**
+   * Checks if the device supports a feature. On Android the answer comes from a
+   * probe that runs once at app start and is stored per device, and resolves with
+   * {supported, missing, message}.
+   *
+   * @param {string|list} feature Android: 'geo', 'image_tracking', 'instant_tracking',
+   * 'object_tracking' (also available as NativeModules.WikitudeModule.Geo, ...), or a list of them.
+   */
   isDeviceSupportingFeature = feature => {
     if (Platform.OS === 'android') {
+      return isDeviceSupportingFeatures(
+        Array.isArray(feature) ? feature : [feature],
+      );
     } else {
       return NativeModules.RNWikitude.isDeviceSupportingFeatures(
         feature,
@@ -79,36 +123,300 @@ class WikitudeView extends React.Component {
     );
   };
 
+  /**
+   * Android only. Returns the native module for direct calls into this view,
+   * which skip the UI manager command queue and return promises. Null if
+   * the module isn't available, Ex. on iOS.
+   */
+  directModule = () => {
+    return Platform.OS === 'android' ? NativeModules.WikitudeModule : null;
+  };
+
+  /**
+   * Android only. Returns the queue stats of this view synchronously, without
+   * calling onQueueStats. Null if synchronous calls aren't available.
+   */
+  getQueueStatsSync = () => {
+    const module = this.directModule();
+    if (!module || !canCallSync()) {
+      return null;
+    }
+    return module.getQueueStatsSync(findNodeHandle(this.wikitudeRef));
+  };
+
   // Below are functions that make calls to native code
 
   setWorldUrl = newUrl => {
     console.log('RN-SDK: Calling setWorldUrl');
-    this.callNative(NativeFunctions.setUrl, [newUrl]);
+    Commands.setUrl(this.wikitudeRef, newUrl);
   };
 
-  callJavascript = js => {
+  /**
+   * Queues javascript to be executed in the world. Queued calls are merged
+   * and sent to the world once per frame (or once per `jsBatchWindow`).
+   *
+   * @param {string} js The javascript to execute.
+   * @param {string} key Optional key; replaces a pending call with the same key.
+   */
+  callJavascript = (js, key) => {
     console.log('RN-SDK: Calling callJavascript');
-    this.callNative(NativeFunctions.callJS, [js]);
+    const module = this.directModule();
+    const fallback = () => {
+      // the view isn't registered yet, the command is ordered after its creation
+      this.callNative(NativeFunctions.callJS, key ? [js, key] : [js]);
+      return null;
+    };
+    if (module && canCallSync()) {
+      // queued right away on the JS thread
+      const pending = module.callJavascriptSync(
+        findNodeHandle(this.wikitudeRef),
+        js,
+        key || null,
+      );
+      return Promise.resolve(pending < 0 ? fallback() : pending);
+    }
+    if (module) {
+      // resolves with the number of pending calls once queued
+      return module
+        .callJavascript(findNodeHandle(this.wikitudeRef), js, key || null)
+        .then(pending => (pending < 0 ? fallback() : pending));
+    }
+    fallback();
+  };
+
+  /**
+   * Android only. Calls a function in the world with the given arguments.
+   * The arguments are serialized natively, so large data doesn't need to be
+   * converted to a javascript string first.
+   *
+   * @param {string} name Name of the function. Ex. 'World.loadPois'
+   * @param {list} args Arguments of the call.
+   * @param {string} key Optional key; replaces a pending call with the same key.
+   */
+  callJavascriptFunction = (name, args, key) => {
+    const module = this.directModule();
+    const fallback = () => {
+      this.callNative(NativeFunctions.callJSFunction, [name, args || [], key]);
+      return null;
+    };
+    if (module) {
+      return module
+        .callJavascriptFunction(
+          findNodeHandle(this.wikitudeRef),
+          name,
+          args || [],
+          key || null,
+        )
+        .then(pending => (pending < 0 ? fallback() : pending))
+        .catch(error => {
+          console.error('RN-SDK: callJavascriptFunction failed', error);
+          return null;
+        });
+    }
+    fallback();
+  };
+
+  /**
+   * Android only. Sends geo data to the world as packed binary records.
+   *
+   * @param {string} channel Name of the data set, passed to the world receiver.
+   * @param {object} data Arrays {lat, lon, alt, ids}; alt and ids are optional.
+   * @param {object} options Optional {chunkSize, receiver}.
+   */
+  sendBulkData = (channel, data, options) => {
+    this.callNative(NativeFunctions.sendBulkData, [channel, data, options]);
+  };
+
+  /**
+   * Android only. Sends a file of packed binary records to the world.
+   *
+   * @param {string} channel Name of the data set, passed to the world receiver.
+   * @param {string} path Path of the file.
+   * @param {object} options Optional {chunkSize, receiver}.
+   */
+  sendBulkFile = (channel, path, options) => {
+    this.callNative(NativeFunctions.sendBulkFile, [channel, path, options]);
+  };
+
+  /**
+   * Android only. Sets all POIs of the world. Only the POIs that were added,
+   * changed or removed since the last call are sent to the world.
+   *
+   * @param {list} pois POIs with a numeric `id`, `latitude`, `longitude` and optional `altitude`.
+   * @param {object} options Optional {receiver}.
+   */
+  setPois = (pois, options) => {
+    this.callNative(NativeFunctions.setPois, [pois, options]);
+  };
+
+  clearPois = () => {
+    Commands.clearPois(this.wikitudeRef);
+  };
+
+  /**
+   * Android only. Limits the POIs sent to the world to the ones near the
+   * injected location. Pass 0 for both limits to send all POIs again.
+   *
+   * @param {object} options {radius, maxCount, recullDistance}
+   */
+  setPoiCulling = options => {
+    this.callNative(NativeFunctions.setPoiCulling, [options]);
+  };
+
+  // results are sent to the onQueueStats callback, and on Android also returned as a promise
+  getQueueStats = () => {
+    const module = this.directModule();
+    if (module) {
+      return module
+        .getQueueStats(findNodeHandle(this.wikitudeRef))
+        .then(stats => {
+          if (stats == null) {
+            // not registered yet, stats are sent to onQueueStats by the command
+            Commands.getQueueStats(this.wikitudeRef);
+            return null;
+          }
+          this.onQueueStats({nativeEvent: stats});
+          return stats;
+        });
+    }
+    Commands.getQueueStats(this.wikitudeRef);
   };
 
-  injectLocation = (lat, lng) => {
+  /**
+   * Injects the location of the device.
+   *
+   * @param {number} lat Latitude.
+   * @param {number} lng Longitude.
+   * @param {number} alt Optional, Android only. Altitude in meters.
+   * @param {number} accuracy Optional, Android only. Accuracy in meters, defaults to 100.
+   */
+  injectLocation = (lat, lng, alt, accuracy) => {
     console.log('RN-SDK: Calling injectLocation');
-    this.callNative(NativeFunctions.injectLocation, [lat, lng]);
+    const module = this.directModule();
+    const fallback = () => {
+      this.callNative(
+        NativeFunctions.injectLocation,
+        Platform.OS === 'android'
+          ? [lat, lng, alt == null ? null : alt, accuracy == null ? null : accuracy]
+          : [lat, lng],
+      );
+      return null;
+    };
+    if (module && canCallSync()) {
+      const submitted = module.injectLocationSync(
+        findNodeHandle(this.wikitudeRef),
+        lat,
+        lng,
+        alt == null ? null : alt,
+        accuracy == null ? null : accuracy,
+      );
+      if (!submitted) {
+        fallback();
+      }
+      return Promise.resolve(null);
+    }
+    if (module) {
+      return module
+        .injectLocation(
+          findNodeHandle(this.wikitudeRef),
+          lat,
+          lng,
+          alt == null ? null : alt,
+          accuracy == null ? null : accuracy,
+        )
+        .then(submitted => (submitted ? null : fallback()));
+    }
+    fallback();
+  };
+
+  /**
+   * Android only. Configures how injected locations are filtered before they reach the SDK.
+   *
+   * @param {object} config {minInterval, minDistance, maxAccuracy, smoothing, smoothingFactor, processNoise}
+   */
+  configureLocation = config => {
+    this.callNative(NativeFunctions.configureLocation, [config]);
+  };
+
+  /**
+   * Android only. Feeds the view from a native location source, without sending every
+   * location through the bridge. Summaries are sent to the onLocationUpdate callback.
+   *
+   * @param {object} options {source, minInterval, minDistance, reportInterval, fixes, loop, speed} and the keys of configureLocation
+   */
+  startNativeLocation = options => {
+    this.callNative(NativeFunctions.startNativeLocation, [options || {}]);
+  };
+
+  /**
+   * Android only. Stops the native location source.
+   */
+  stopNativeLocation = () => {
+    Commands.stopNativeLocation(this.wikitudeRef);
+  };
+
+  /**
+   * Captures the screen. The result is sent to the onScreenCaptured callback.
+   *
+   * @param {boolean} mode True to capture the camera and the world, false for only the camera.
+   * @param {object} options Optional, Android only. {format, quality, width, height, output}
+   */
+  captureScreen = (mode, options) => {
+    this.callNative(
+      NativeFunctions.captureScreen,
+      options ? [mode, options] : [mode],
+    );
+  };
+
+  /**
+   * Android only. Captures the screen and resolves with the result instead of
+   * calling onScreenCaptured.
+   *
+   * @param {boolean} mode True to capture the camera and the world, false for only the camera.
+   * @param {object} options Optional {format, quality, width, height, output}
+   * @returns {Promise<object>} {image or uri, format, width, height}
+   */
+  captureScreenAsync = (mode, options) => {
+    return NativeModules.WikitudeModule.captureScreen(
+      findNodeHandle(this.wikitudeRef),
+      mode,
+      options || null,
+    );
+  };
+
+  /**
+   * Android only. Continuously captures the screen, frames are sent to the onCaptureFrame callback.
+   *
+   * @param {number} fps Target frame rate.
+   * @param {object} options Capture options, plus `captureWebView` and `acknowledge`.
+   * @param {number} maxInFlight Frames processed at the same time before frames are dropped.
+   */
+  startCaptureStream = (fps, options, maxInFlight) => {
+    this.callNative(NativeFunctions.startCaptureStream, [
+      fps,
+      options || null,
+      maxInFlight || 2,
+    ]);
   };
 
-  captureScreen = mode => {
-    this.callNative(NativeFunctions.captureScreen, [mode]);
+  stopCaptureStream = () => {
+    Commands.stopCaptureStream(this.wikitudeRef);
+  };
+
+  // releases a frame when the stream was started with `acknowledge: true`
+  ackCaptureFrame = () => {
+    Commands.ackCaptureFrame(this.wikitudeRef);
   };
 
   // called when component unmounts
   stopRendering = () => {
     console.log('RN-SDK: Calling stopRendering');
-    this.callNative(NativeFunctions.stopAR, []);
+    Commands.stopAR(this.wikitudeRef);
   };
   // called when component mounts
   resumeRendering = () => {
     console.log('RN-SDK: Calling resumeRendering');
-    this.callNative(NativeFunctions.resumeAR, []);
+    Commands.resumeAR(this.wikitudeRef);
   };
 
   // Below are the event handlers triggered by the native WikitudeViewManager class
@@ -119,6 +427,17 @@ class WikitudeView extends React.Component {
       this.props.onJsonReceived(event.nativeEvent);
     }
   };
+  // with the jsonBatching prop, messages arrive in batches; without an
+  // onJsonBatch callback each message is passed to onJsonReceived
+  onJsonBatch = event => {
+    if (this.props.onJsonBatch) {
+      this.props.onJsonBatch(event.nativeEvent);
+    } else if (this.props.onJsonReceived) {
+      event.nativeEvent.events.forEach(message => {
+        this.props.onJsonReceived({message});
+      });
+    }
+  };
   onFinishLoading = event => {
     if (this.props.onFinishLoading) {
       this.props.onFinishLoading(event.nativeEvent);
@@ -130,22 +449,78 @@ class WikitudeView extends React.Component {
     }
   };
   onScreenCaptured = event => {
-    if (!this.props.onScreenCaptured) {
+    if (this.props.onScreenCaptured) {
       this.props.onScreenCaptured(event.nativeEvent);
     }
   };
+  onCaptureFrame = event => {
+    if (this.props.onCaptureFrame) {
+      this.props.onCaptureFrame(event.nativeEvent);
+    }
+  };
+  onCaptureStreamStats = event => {
+    if (this.props.onCaptureStreamStats) {
+      this.props.onCaptureStreamStats(event.nativeEvent);
+    }
+  };
+  onBulkDataSent = event => {
+    if (this.props.onBulkDataSent) {
+      this.props.onBulkDataSent(event.nativeEvent);
+    }
+  };
+  onPoiSync = event => {
+    if (this.props.onPoiSync) {
+      this.props.onPoiSync(event.nativeEvent);
+    }
+  };
+  onLocationUpdate = event => {
+    if (this.props.onLocationUpdate) {
+      this.props.onLocationUpdate(event.nativeEvent);
+    }
+  };
+  onQueueStats = event => {
+    if (this.props.onQueueStats) {
+      this.props.onQueueStats(event.nativeEvent);
+    }
+  };
+  onMetrics = event => {
+    if (this.props.onMetrics) {
+      this.props.onMetrics(event.nativeEvent);
+    }
+  };
+  onTelemetry = event => {
+    if (this.props.onTelemetry) {
+      this.props.onTelemetry(event.nativeEvent);
+    }
+  };
+  onFrameBudgetExceeded = event => {
+    if (this.props.onFrameBudgetExceeded) {
+      this.props.onFrameBudgetExceeded(event.nativeEvent);
+    }
+  };
 
   // returns native view
 
   render() {
     return (
       <WKTView
+        key={startupKey(this.props)}
         ref={e => (this.wikitudeRef = e)}
         {...this.props}
         onJsonReceived={this.onJsonReceived}
         onFailLoading={this.onFailLoading}
         onFinishLoading={this.onFinishLoading}
         onScreenCaptured={this.onScreenCaptured}
+        onQueueStats={this.onQueueStats}
+        onPoiSync={this.onPoiSync}
+        onLocationUpdate={this.onLocationUpdate}
+        onJsonBatch={this.onJsonBatch}
+        onBulkDataSent={this.onBulkDataSent}
+        onCaptureFrame={this.onCaptureFrame}
+        onCaptureStreamStats={this.onCaptureStreamStats}
+        onMetrics={this.onMetrics}
+        onTelemetry={this.onTelemetry}
+        onFrameBudgetExceeded={this.onFrameBudgetExceeded}
       />
     );
   }
@@ -159,18 +534,216 @@ WikitudeView.propTypes = {
   licenseKey: PropTypes.string,
   url: PropTypes.string,
   feature: PropTypes.number,
+  features: PropTypes.arrayOf(PropTypes.string),
+  cameraResolution: PropTypes.oneOf(['sd', 'hd', 'full_hd', 'auto']),
+  cameraPosition: PropTypes.oneOf(['back', 'front', 'default']),
+  focusMode: PropTypes.oneOf(['continuous', 'once', 'off']),
+  camera2Enabled: PropTypes.bool,
   onJsonReceived: PropTypes.func,
   onFinishLoading: PropTypes.func,
   onFailLoading: PropTypes.func,
   onScreenCaptured: PropTypes.func,
+  onQueueStats: PropTypes.func,
+  onPoiSync: PropTypes.func,
+  onLocationUpdate: PropTypes.func,
+  onJsonBatch: PropTypes.func,
+  onBulkDataSent: PropTypes.func,
+  onCaptureFrame: PropTypes.func,
+  onCaptureStreamStats: PropTypes.func,
+  onMetrics: PropTypes.func,
+  onTelemetry: PropTypes.func,
+  onFrameBudgetExceeded: PropTypes.func,
   isPOI: PropTypes.bool,
+  isRunning: PropTypes.bool,
+  jsBatchWindow: PropTypes.number,
+  jsonBatching: PropTypes.object,
+  metricsInterval: PropTypes.number,
+  telemetry: PropTypes.object,
 };
 
 /**
+ * Android only. Creates Wikitude views ahead of time, so the next WikitudeView
+ * with the same licenseKey and url mounts without starting the SDK and loading the world.
+ * Unmounted views are kept for reuse, up to `count` views.
+ *
+ * @param {string} licenseKey Wikitude license key.
+ * @param {string} url World to load, as passed to the url prop.
+ * @param {number} count Number of views to keep, defaults to 1.
+ * @param {object} options Startup options of the views, the same as the
+ * features, cameraResolution, cameraPosition, focusMode and camera2Enabled
+ * props of the WikitudeView they are used for.
+ */
+function prewarm(licenseKey, url, count, options) {
+  if (Platform.OS === 'android') {
+    NativeModules.WikitudeModule.prewarm(
+      licenseKey,
+      url,
+      count == null ? 1 : count,
+      options || null,
+    );
+  }
+}
+
+/**
+ * Android only. Destroys the prewarmed views and stops keeping unmounted views.
+ */
+function clearPool() {
+  if (Platform.OS === 'android') {
+    NativeModules.WikitudeModule.clearPool();
+  }
+}
+
+/**
+ * Android only. Downloads a remote world into the world cache, so views load it
+ * from local storage instead of downloading it again.
+ *
+ * @param {string} url Remote URL of the world.
+ * @param {object} options Optional. {version, assets}
+ * @returns {Promise<boolean>} True if the world was downloaded, false if the cached copy was current.
+ */
+function prefetchWorld(url, options) {
+  if (Platform.OS === 'android') {
+    return NativeModules.WikitudeModule.prefetchWorld(url, options || null);
+  }
+  return Promise.resolve(false);
+}
+
+/**
+ * Android only. Sets the maximum total size of the world cache in bytes.
+ *
+ * @param {number} maxBytes
+ */
+function setWorldCacheSize(maxBytes) {
+  if (Platform.OS === 'android') {
+    NativeModules.WikitudeModule.setWorldCacheSize(maxBytes);
+  }
+}
+
+/**
+ * Android only. Deletes all cached worlds.
+ */
+function clearWorldCache() {
+  if (Platform.OS === 'android') {
+    NativeModules.WikitudeModule.clearWorldCache();
+  }
+}
+
+/**
+ * Android only. Downloads (or copies) a zipped world in the background, checks its
+ * SHA-256 and swaps it in once it is complete. Load it with a `bundle://<name>/index.html` url.
  *
+ * @param {string} name Name of the bundle.
+ * @param {string} source URL of the zip, http(s)://, file:// or an absolute path.
+ * @param {string} sha256 Optional expected SHA-256 of the zip, as hex.
+ * @returns {Promise<object>} {version, url, changed}
  */
-var WKTView = requireNativeComponent('RNWikitude', WikitudeView);
+function stageBundle(name, source, sha256) {
+  if (Platform.OS === 'android') {
+    return NativeModules.WikitudeModule.stageBundle(name, source, sha256 || null);
+  }
+  return Promise.reject(new Error('stageBundle is only supported on Android'));
+}
+
+/**
+ * Android only. Configures the native logging of the module. Release builds
+ * log warnings and errors only, debug builds log from 'debug' up.
+ *
+ * @param {string} level 'verbose', 'debug', 'info', 'warn', 'error' or 'none'.
+ * @param {number} maxPayload Optional maximum length of logged strings, default 256.
+ */
+function setLogLevel(level, maxPayload) {
+  if (Platform.OS === 'android') {
+    NativeModules.WikitudeModule.setLogLevel(level, maxPayload || 0);
+  }
+}
+
+/**
+ * Android only. Returns how many native log messages were logged, suppressed and truncated.
+ *
+ * @returns {Promise<object>} {level, maxPayload, logged, suppressed, truncated}
+ */
+function getLogStats() {
+  if (Platform.OS === 'android') {
+    return NativeModules.WikitudeModule.getLogStats();
+  }
+  return Promise.resolve(null);
+}
+
+/**
+ * Android only. Returns the latency histograms and counters of the native bridge.
+ * Latencies are in milliseconds.
+ *
+ * @returns {Promise<object>} {latencies: {command, jsQueue, worldLoad, capture, encode, jsonConvert, eventEmit}, counters, queueDepth}
+ */
+function getMetrics() {
+  if (Platform.OS === 'android') {
+    return NativeModules.WikitudeModule.getMetrics();
+  }
+  return Promise.resolve(null);
+}
+
+/**
+ * Android only. Returns the same snapshot as getMetrics synchronously, or null
+ * if synchronous calls aren't available.
+ *
+ * @returns {object} {latencies, counters, queueDepth}
+ */
+function getMetricsSync() {
+  if (Platform.OS === 'android' && canCallSync()) {
+    return NativeModules.WikitudeModule.getMetricsSync();
+  }
+  return null;
+}
+
+/**
+ * Android only. Resets the latency histograms and counters of the native bridge.
+ */
+function resetMetrics() {
+  if (Platform.OS === 'android') {
+    NativeModules.WikitudeModule.resetMetrics();
+  }
+}
+
+/**
+ * Android only. Checks if the device supports all the given features, without
+ * creating a view.
+ *
+ * @param {list} features Ex. ['geo', 'image_tracking']
+ * @returns {Promise<object>} {supported, missing, message}
+ */
+function isDeviceSupportingFeatures(features) {
+  if (Platform.OS === 'android') {
+    return NativeModules.WikitudeModule.isDeviceSupportingFeatures(features);
+  }
+  return Promise.resolve(null);
+}
+
+/**
+ * Android only. Returns the support of every feature, whether the camera and
+ * location permissions are granted, and the SDK version.
+ *
+ * @returns {Promise<object>} {features: {geo: {supported, message}, ...}, permissions: {camera, location}, sdkVersion}
+ */
+function getDeviceCapabilities() {
+  if (Platform.OS === 'android') {
+    return NativeModules.WikitudeModule.getDeviceCapabilities();
+  }
+  return Promise.resolve(null);
+}
 
 module.exports = {
   WikitudeView,
+  prewarm,
+  clearPool,
+  prefetchWorld,
+  setWorldCacheSize,
+  clearWorldCache,
+  stageBundle,
+  setLogLevel,
+  getLogStats,
+  getMetrics,
+  getMetricsSync,
+  resetMetrics,
+  isDeviceSupportingFeatures,
+  getDeviceCapabilities,
 };
@@ -0,0 +1,241 @@
+// @flow strict-local
+
+/**
+ * Typed spec of the native Wikitude view: its props, the payloads of its
+ * events and the commands with primitive arguments. It documents the
+ * interface of the 'RNWikitude' view manager and is checked by Flow.
+ *
+ * This is not a Fabric component. On React Native 0.66 codegenNativeComponent
+ * resolves to the legacy view manager and the commands are dispatched through
+ * the UI manager, nothing is generated from this file. It is written so the
+ * codegen can read it once the package requires a React Native version with
+ * new architecture support and implements the generated Java interface.
+ *
+ * Commands with object or array arguments (captureScreen options, setPois,
+ * configureLocation, ...) are sent by name, see ./functionMaps.js.
+ */
+
+import type {HostComponent} from 'react-native';
+import type {ViewProps} from 'react-native/Libraries/Components/View/ViewPropTypes';
+import type {
+  BubblingEventHandler,
+  Double,
+  Int32,
+  UnsafeObject,
+  WithDefault,
+} from 'react-native/Libraries/Types/CodegenTypes';
+import codegenNativeComponent from 'react-native/Libraries/Utilities/codegenNativeComponent';
+import codegenNativeCommands from 'react-native/Libraries/Utilities/codegenNativeCommands';
+
+// Messages of the world are arbitrary JSON objects
+type JsonReceivedEvent = $ReadOnly<{|
+  message: UnsafeObject,
+|}>;
+
+type MessageEvent = $ReadOnly<{|
+  message: string,
+|}>;
+
+type CaptureEvent = $ReadOnly<{|
+  image?: string,
+  uri?: string,
+  format?: string,
+  width?: Int32,
+  height?: Int32,
+  error?: string,
+|}>;
+
+type CaptureFrameEvent = $ReadOnly<{|
+  image?: string,
+  uri?: string,
+  format?: string,
+  width?: Int32,
+  height?: Int32,
+  frame: Double,
+  delivered: Double,
+  dropped: Double,
+|}>;
+
+type CaptureStreamStatsEvent = $ReadOnly<{|
+  running: boolean,
+  inFlight: Int32,
+  frames: Double,
+  delivered: Double,
+  dropped: Double,
+|}>;
+
+type QueueStatsEvent = $ReadOnly<{|
+  depth: Int32,
+  queued: Double,
+  merged: Double,
+  superseded: Double,
+  dropped: Double,
+  flushes: Double,
+  scheduledSuperseded: Double,
+  deferredFrames: Double,
+|}>;
+
+type BulkDataSentEvent = $ReadOnly<{|
+  channel: string,
+  count?: Int32,
+  chunks?: Int32,
+  bytes?: Double,
+  error?: string,
+|}>;
+
+type PoiSyncEvent = $ReadOnly<{|
+  added: Int32,
+  updated: Int32,
+  removed: Int32,
+  total: Int32,
+  inWorld: Int32,
+|}>;
+
+type LocationUpdateEvent = $ReadOnly<{|
+  latitude?: Double,
+  longitude?: Double,
+  altitude?: Double,
+  accuracy?: Double,
+  received?: Int32,
+  applied?: Int32,
+  error?: string,
+|}>;
+
+type JsonBatchEvent = $ReadOnly<{|
+  events: $ReadOnlyArray<UnsafeObject>,
+  replaced: Int32,
+|}>;
+
+// Latencies in milliseconds
+type LatencyStats = $ReadOnly<{|
+  count: Double,
+  mean: Double,
+  max: Double,
+  p50: Double,
+  p95: Double,
+  p99: Double,
+|}>;
+
+type MetricsEvent = $ReadOnly<{|
+  latencies: $ReadOnly<{|
+    command: LatencyStats,
+    jsQueue: LatencyStats,
+    worldLoad: LatencyStats,
+    capture: LatencyStats,
+    encode: LatencyStats,
+    jsonConvert: LatencyStats,
+    eventEmit: LatencyStats,
+  |}>,
+  counters: $ReadOnly<{|
+    eventsEmitted: Double,
+    eventsDropped: Double,
+    framesDropped: Double,
+    jsBytes: Double,
+    captureBytes: Double,
+    bulkBytes: Double,
+    jsonMessages: Double,
+  |}>,
+  queueDepth: Int32,
+|}>;
+
+type TelemetryEvent = $ReadOnly<{|
+  frameTime: $ReadOnly<{|
+    p50: Double,
+    p90: Double,
+    p95: Double,
+    p99: Double,
+    max: Double,
+  |}>,
+  fps: Double,
+  frames: Int32,
+  slowFrames: Int32,
+  jsonPerSecond: Double,
+  javaHeap: Double,
+  javaHeapMax: Double,
+  nativeHeap: Double,
+  url: string,
+|}>;
+
+type FrameBudgetExceededEvent = $ReadOnly<{|
+  p95: Double,
+  budget: Double,
+  reports: Int32,
+  url: string,
+|}>;
+
+type NativeProps = $ReadOnly<{|
+  ...ViewProps,
+  licenseKey?: string,
+  url?: string,
+  feature?: Int32,
+  features?: $ReadOnlyArray<string>,
+  cameraResolution?: string,
+  cameraPosition?: string,
+  focusMode?: string,
+  camera2Enabled?: boolean,
+  isRunning?: WithDefault<boolean, true>,
+  jsBatchWindow?: Int32,
+  metricsInterval?: Int32,
+  jsonBatching?: $ReadOnly<{|
+    window?: Double,
+    maxSize?: Int32,
+    latestOnly?: $ReadOnlyArray<string>,
+    typeKey?: string,
+  |}>,
+  telemetry?: $ReadOnly<{|
+    reportInterval?: Double,
+    window?: Int32,
+    budget?: Double,
+    budgetReports?: Int32,
+  |}>,
+  onJsonReceived?: ?BubblingEventHandler<JsonReceivedEvent>,
+  onJsonBatch?: ?BubblingEventHandler<JsonBatchEvent>,
+  onFinishLoading?: ?BubblingEventHandler<MessageEvent>,
+  onFailLoading?: ?BubblingEventHandler<MessageEvent>,
+  onScreenCaptured?: ?BubblingEventHandler<CaptureEvent>,
+  onCaptureFrame?: ?BubblingEventHandler<CaptureFrameEvent>,
+  onCaptureStreamStats?: ?BubblingEventHandler<CaptureStreamStatsEvent>,
+  onQueueStats?: ?BubblingEventHandler<QueueStatsEvent>,
+  onBulkDataSent?: ?BubblingEventHandler<BulkDataSentEvent>,
+  onPoiSync?: ?BubblingEventHandler<PoiSyncEvent>,
+  onLocationUpdate?: ?BubblingEventHandler<LocationUpdateEvent>,
+  onMetrics?: ?BubblingEventHandler<MetricsEvent>,
+  onTelemetry?: ?BubblingEventHandler<TelemetryEvent>,
+  onFrameBudgetExceeded?: ?BubblingEventHandler<FrameBudgetExceededEvent>,
+|}>;
+
+type ComponentType = HostComponent<NativeProps>;
+
+interface NativeCommands {
+  +setUrl: (viewRef: React$ElementRef<ComponentType>, url: string) => void;
+  +callJS: (viewRef: React$ElementRef<ComponentType>, js: string) => void;
+  +injectLocation: (
+    viewRef: React$ElementRef<ComponentType>,
+    latitude: Double,
+    longitude: Double,
+  ) => void;
+  +stopAR: (viewRef: React$ElementRef<ComponentType>) => void;
+  +resumeAR: (viewRef: React$ElementRef<ComponentType>) => void;
+  +getQueueStats: (viewRef: React$ElementRef<ComponentType>) => void;
+  +clearPois: (viewRef: React$ElementRef<ComponentType>) => void;
+  +stopCaptureStream: (viewRef: React$ElementRef<ComponentType>) => void;
+  +ackCaptureFrame: (viewRef: React$ElementRef<ComponentType>) => void;
+  +stopNativeLocation: (viewRef: React$ElementRef<ComponentType>) => void;
+}
+
+export const Commands: NativeCommands = codegenNativeCommands<NativeCommands>({
+  supportedCommands: [
+    'setUrl',
+    'callJS',
+    'injectLocation',
+    'stopAR',
+    'resumeAR',
+    'getQueueStats',
+    'clearPois',
+    'stopCaptureStream',
+    'ackCaptureFrame',
+    'stopNativeLocation',
+  ],
+});
+
+export default (codegenNativeComponent<NativeProps>('RNWikitude'): ComponentType);
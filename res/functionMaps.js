@@ -12,10 +12,16 @@ const nativeFuncs = {
     android: 'callJS',
     // ios: iosCommands.callJavascript,
   },
+  callJSFunction: {
+    android: 'callJSFunction',
+  },
   injectLocation: {
     android: 'injectLocation',
     // ios: iosCommands.injectLocation,
   },
+  configureLocation: {
+    android: 'configureLocation',
+  },
   stopAR: {
     android: 'stopAR',
     // ios: iosCommands.stopAR,
@@ -28,6 +34,39 @@ const nativeFuncs = {
     android: 'captureScreen',
     // ios: iosCommands.captureScreen,
   },
+  sendBulkData: {
+    android: 'sendBulkData',
+  },
+  sendBulkFile: {
+    android: 'sendBulkFile',
+  },
+  setPois: {
+    android: 'setPois',
+  },
+  clearPois: {
+    android: 'clearPois',
+  },
+  setPoiCulling: {
+    android: 'setPoiCulling',
+  },
+  getQueueStats: {
+    android: 'getQueueStats',
+  },
+  startCaptureStream: {
+    android: 'startCaptureStream',
+  },
+  stopCaptureStream: {
+    android: 'stopCaptureStream',
+  },
+  ackCaptureFrame: {
+    android: 'ackCaptureFrame',
+  },
+  startNativeLocation: {
+    android: 'startNativeLocation',
+  },
+  stopNativeLocation: {
+    android: 'stopNativeLocation',
+  },
 };
 
 export default nativeFuncs;